@@ -60,4 +60,19 @@ protected boolean isExcludedFile(String fileName)
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The automatic tests don't change the wiki, so the pages of the actions which don't modify anything are cached.
+     * 
+     * @param url URL used in the test
+     * @return true if the response can be cached, false otherwise
+     * @see AbstractEscapingTest#isCacheable(java.lang.String)
+     */
+    @Override
+    protected boolean isCacheable(String url)
+    {
+        return isReadOnlyAction(url);
+    }
 }
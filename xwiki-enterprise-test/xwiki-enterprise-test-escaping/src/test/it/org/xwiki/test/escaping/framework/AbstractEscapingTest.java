@@ -33,6 +33,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -72,7 +73,12 @@
  * Automatic tests (see {@link AbstractAutomaticTest}) additionally support:
  * <ul>
  * <li>patternExcludeFiles (optional): List of RegEx patterns to exclude files from the tests</li>
+ * <li>escapingThreads (optional): Number of files tested at the same time by
+ * {@link org.xwiki.test.escaping.suite.ArchiveSuite}, 1 by default</li>
  * </ul>
+ * <p>
+ * Each thread has its own HTTP client, login status and secret tokens, so that tests run in parallel don't share
+ * their session.
  * 
  * @version $Id$
  * @since 2.5M1
@@ -88,14 +94,15 @@ public abstract class AbstractEscapingTest implements FileTest
     /** Secret token parameter name. */
     private static final String SECRET_TOKEN = "form_token";
 
-    /** HTTP client shared between all subclasses. */
-    private static HttpClient client;
-
-    /** A flag controlling login. If true, administrator credentials are used. */
-    private static boolean loggedIn = true;
-
-    /** Stores two cached tokens, one for each value of loggedIn (false -> 0, true -> 1). */
-    private static String[] secretTokens = new String[2];
+    /** HTTP client and login status of the current thread. */
+    private static final ThreadLocal<ClientState> CLIENT_STATE = new ThreadLocal<ClientState>()
+    {
+        @Override
+        protected ClientState initialValue()
+        {
+            return new ClientState();
+        }
+    };
 
     private static Set<String> XML_MIMETYPES = new HashSet<>(Arrays.asList("text/html", "text/xml", "application/xml"));
 
@@ -154,6 +161,8 @@ protected static void setMultiLanguageMode(boolean enabled)
         // set language=en to prevent false positives coming from the cookies
         String langUrl = AbstractEscapingTest.URL_START + "view/Main/?" + LANGUAGE + "=en";
         AbstractEscapingTest.getUrlContent(langUrl);
+        // the cached pages may depend on the language settings
+        URLContentCache.getInstance().clear();
     }
 
     /**
@@ -168,7 +177,7 @@ protected static void setMultiLanguageMode(boolean enabled)
     public boolean initialize(String name, final Reader reader)
     {
         this.name = name;
-        if (!fileNameMatches(name) || !patternMatches(name) || isExcludedFile(name)) {
+        if (!accept(name)) {
             // TODO debug log the reason why the test was skipped
             return false;
         }
@@ -177,6 +186,44 @@ public boolean initialize(String name, final Reader reader)
         return true;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Checks the file name only, the same way as {@link #initialize(String, Reader)}.
+     * 
+     * @see org.xwiki.test.escaping.suite.FileTest#accept(java.lang.String)
+     */
+    @Override
+    public boolean accept(String name)
+    {
+        return fileNameMatches(name) && patternMatches(name) && !isExcludedFile(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The parsed content is the set of user-controlled input parameters found in the file.
+     * 
+     * @see org.xwiki.test.escaping.suite.FileTest#getParsedContent()
+     */
+    @Override
+    public Object getParsedContent()
+    {
+        return this.userInput;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean initialize(String name, Object parsedContent)
+    {
+        if (!accept(name)) {
+            return false;
+        }
+        this.name = name;
+        this.userInput = (Set<String>) parsedContent;
+        return true;
+    }
+
     /**
      * Check if the internal file name pattern matches the given file name.
      * 
@@ -227,7 +274,7 @@ protected boolean patternMatches(String fileName)
      */
     protected static boolean isLoggedIn()
     {
-        return loggedIn;
+        return CLIENT_STATE.get().loggedIn;
     }
 
     /**
@@ -237,7 +284,7 @@ protected static boolean isLoggedIn()
      */
     protected static void setLoggedIn(boolean value)
     {
-        loggedIn = value;
+        CLIENT_STATE.get().loggedIn = value;
     }
 
     /**
@@ -281,7 +328,8 @@ protected static URLContent getUrlContent(String url)
                         + get.getStatusText() + ") for URL: " + url);
             }
 
-            return new URLContent(get.getResponseHeader("Content-Type").getValue(), get.getResponseBody());
+            return new URLContent(get.getResponseHeader("Content-Type").getValue(), get.getResponseBody(),
+                statusCode);
         } catch (IOException exception) {
             throw new RuntimeException("Error retrieving URL: " + url, exception);
         } finally {
@@ -306,13 +354,14 @@ protected static String escapeUrl(String str)
     }
 
     /**
-     * Get an instance of the HTTP client to use.
+     * Get an instance of the HTTP client to use. Each thread has its own client.
      * 
      * @return HTTP client initialized with admin credentials
      */
     protected static HttpClient getClient()
     {
-        if (AbstractEscapingTest.client == null) {
+        ClientState state = CLIENT_STATE.get();
+        if (state.client == null) {
             HttpClient adminClient = new HttpClient();
 
             // set up admin credentials
@@ -334,9 +383,9 @@ protected static HttpClient getClient()
             connectionParams.setConnectionTimeout(30000);
             adminClient.getHttpConnectionManager().setParams(connectionParams);
 
-            AbstractEscapingTest.client = adminClient;
+            state.client = adminClient;
         }
-        return AbstractEscapingTest.client;
+        return state.client;
     }
 
     @Override
@@ -351,14 +400,25 @@ public String toString()
      * @param url URL used in the test
      * @return list of found validation errors
      */
-    protected List<ValidationError> getUnderEscapingErrors(String url)
+    protected List<ValidationError> getUnderEscapingErrors(final String url)
     {
         // TODO better use XWiki logging
         System.out.println("Testing URL: " + url);
 
         URLContent content = null;
         try {
-            content = AbstractEscapingTest.getUrlContent(url);
+            if (isCacheable(url)) {
+                content = URLContentCache.getInstance().get(url, isLoggedIn(), new Callable<URLContent>()
+                {
+                    @Override
+                    public URLContent call()
+                    {
+                        return AbstractEscapingTest.getUrlContent(url);
+                    }
+                });
+            } else {
+                content = AbstractEscapingTest.getUrlContent(url);
+            }
         } catch (RuntimeException e) {
             if (e.getCause() instanceof InvalidRedirectLocationException) {
                 // Don't fail the test if we can't follow a redirect because the redirect location can be taken from the
@@ -391,6 +451,30 @@ protected List<ValidationError> getUnderEscapingErrors(String url)
         }
     }
 
+    /**
+     * Check if the page at the given URL can be taken from the {@link URLContentCache}. Nothing is cached by default
+     * since the tests may change the state of the wiki, for example the manual tests create pages.
+     * 
+     * @param url URL used in the test
+     * @return true if the response can be cached, false otherwise
+     * @see AbstractAutomaticTest#isCacheable(String)
+     */
+    protected boolean isCacheable(String url)
+    {
+        return false;
+    }
+
+    /**
+     * Check if the given URL is for an action which doesn't modify anything.
+     * 
+     * @param url URL used in the test
+     * @return true for the view and get actions, false otherwise
+     */
+    protected static boolean isReadOnlyAction(String url)
+    {
+        return url.startsWith(URL_START + "view/") || url.startsWith(URL_START + "get/");
+    }
+
     /**
      * A convenience method that throws an {@link EscapingError} on failure.
      *
@@ -461,13 +545,15 @@ protected static String createUrl(String action, String space, String page, Map<
     }
 
     /**
-     * Get the secret token used for CSRF protection. Caches 2 tokens (for logged in and logged out) on the first call.
+     * Get the secret token used for CSRF protection. Caches 2 tokens (for logged in and logged out) on the first call,
+     * for each thread since the token is bound to the session of the client.
      * 
      * @return anti-CSRF secret token, or empty string on error
      * @since 3.2M1
      */
     protected static String getSecretToken()
     {
+        String[] secretTokens = CLIENT_STATE.get().secretTokens;
         int index = isLoggedIn() ? 1 : 0;
         if (secretTokens[index] == null) {
             secretTokens[index] = getSecretTokenFromPage();
@@ -501,4 +587,19 @@ private static String getSecretTokenFromPage()
         System.out.println("WARNING, Failed to cache anti-CSRF secret token, some tests might fail!");
         return "";
     }
+
+    /**
+     * The HTTP client of a thread and its login status.
+     */
+    private static final class ClientState
+    {
+        /** HTTP client, created on first use. */
+        private HttpClient client;
+
+        /** A flag controlling login. If true, administrator credentials are used. */
+        private boolean loggedIn = true;
+
+        /** Stores two cached tokens, one for each value of loggedIn (false -> 0, true -> 1). */
+        private String[] secretTokens = new String[2];
+    }
 }
@@ -132,6 +132,7 @@ protected void createPage(String space, String page, String title, String conten
         String url = createUrl("save", space, page,
             params(kv("title", title), kv("content", content), kv("action_save", "Save+%26+View")));
         AbstractEscapingTest.getUrlContent(url);
+        URLContentCache.getInstance().clear();
         // schedule for deletion
         deleteAfterwards(space, page);
     }
@@ -222,5 +223,8 @@ public void tearDown()
         for (String url : this.toDeleteURLs) {
             AbstractEscapingTest.getUrlContent(url);
         }
+        if (!this.toDeleteURLs.isEmpty()) {
+            URLContentCache.getInstance().clear();
+        }
     }
 }
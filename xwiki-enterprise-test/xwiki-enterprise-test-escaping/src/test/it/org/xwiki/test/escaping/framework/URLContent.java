@@ -26,6 +26,7 @@
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
+import org.apache.commons.httpclient.HttpStatus;
 import org.apache.http.entity.ContentType;
 
 public class URLContent
@@ -34,10 +35,24 @@
 
     private byte[] content;
 
+    private int status;
+
     public URLContent(String typeHeader, byte[] content)
+    {
+        this(typeHeader, content, HttpStatus.SC_OK);
+    }
+
+    /**
+     * @param typeHeader the value of the Content-Type header, null if missing
+     * @param content the response body
+     * @param status the HTTP status of the response
+     * @since 9.5RC1
+     */
+    public URLContent(String typeHeader, byte[] content, int status)
     {
         this.type = typeHeader != null ? ContentType.parse(typeHeader) : null;
         this.content = content;
+        this.status = status;
     }
 
     public ContentType getType()
@@ -50,6 +65,15 @@ public byte[] getContent()
         return this.content;
     }
 
+    /**
+     * @return the HTTP status of the response
+     * @since 9.5RC1
+     */
+    public int getStatus()
+    {
+        return this.status;
+    }
+
     public Reader getContentReader()
     {
         Charset charset;
@@ -0,0 +1,242 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.escaping.framework;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Cache of the pages downloaded by the escaping tests, so that the same URL is requested only once even when several
+ * tests ask for it at the same time. The entries are keyed by URL and login status, ignoring the secret token which
+ * changes with the session. The cached pages must not depend on the state of the wiki, so the cache is cleared by the
+ * tests which change it (see {@link #clear()}).
+ * <p>
+ * The following configuration properties are supported (set in maven):
+ * <ul>
+ * <li>escapingCache (optional): Set to true to enable the cache, false by default</li>
+ * <li>escapingCacheDirectory (optional): Directory where the downloaded pages are persisted between runs, the pages
+ * are only kept in memory if empty. The pages are stored in a sub directory specific to the tested WAR and XAR files,
+ * so they are downloaded again when XWiki changes. Only the successful (200) responses are persisted, the error pages
+ * may be caused by a transient problem of the server.</li>
+ * </ul>
+ * 
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public final class URLContentCache
+{
+    /** Singleton instance. */
+    private static final URLContentCache INSTANCE = new URLContentCache();
+
+    /** The pages downloaded or being downloaded. */
+    private final ConcurrentMap<String, FutureTask<URLContent>> entries =
+        new ConcurrentHashMap<String, FutureTask<URLContent>>();
+
+    /** The keys of the pages persisted during this run. */
+    private final Set<String> storedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Whether the cache is enabled. */
+    private final boolean enabled;
+
+    /** Directory where the pages are persisted, null if they are only kept in memory. */
+    private final File directory;
+
+    /**
+     * Create new URLContentCache.
+     */
+    private URLContentCache()
+    {
+        this.enabled = Boolean.parseBoolean(System.getProperty("escapingCache", "false"));
+
+        String path = System.getProperty("escapingCacheDirectory", "");
+        if (path.trim().isEmpty()) {
+            this.directory = null;
+        } else {
+            this.directory = new File(path, getFingerprint());
+        }
+    }
+
+    /**
+     * Get the cache instance.
+     * 
+     * @return the shared cache
+     */
+    public static URLContentCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the content of a page from the cache, downloading it if needed. Concurrent calls for the same page wait for
+     * the first one to download it. Nothing is cached when the download fails.
+     * 
+     * @param url URL of the page
+     * @param loggedIn whether the page is requested as administrator
+     * @param loader downloads the page
+     * @return content of the page
+     */
+    public URLContent get(String url, boolean loggedIn, final Callable<URLContent> loader)
+    {
+        if (!this.enabled) {
+            try {
+                return loader.call();
+            } catch (RuntimeException exception) {
+                throw exception;
+            } catch (Exception exception) {
+                throw new RuntimeException("Error retrieving URL: " + url, exception);
+            }
+        }
+
+        final String key = (loggedIn ? "admin " : "guest ") + url.replaceAll("form_token=[^&]*", "form_token=");
+        FutureTask<URLContent> task = new FutureTask<URLContent>(new Callable<URLContent>()
+        {
+            @Override
+            public URLContent call() throws Exception
+            {
+                URLContent content = load(key);
+                if (content == null) {
+                    content = loader.call();
+                    store(key, content);
+                }
+                return content;
+            }
+        });
+        FutureTask<URLContent> existing = this.entries.putIfAbsent(key, task);
+        if (existing == null) {
+            task.run();
+        } else {
+            task = existing;
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while retrieving URL: " + url, exception);
+        } catch (ExecutionException exception) {
+            this.entries.remove(key, task);
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw new RuntimeException("Error retrieving URL: " + url, exception.getCause());
+        }
+    }
+
+    /**
+     * Forget the pages downloaded during this run, since they may depend on a state of the wiki which just changed.
+     * The pages persisted by the previous runs are kept since they were downloaded before any change.
+     */
+    public void clear()
+    {
+        this.entries.clear();
+        for (String key : this.storedKeys) {
+            FileUtils.deleteQuietly(getFile(key));
+        }
+        this.storedKeys.clear();
+    }
+
+    /**
+     * Read a page persisted by a previous run.
+     * 
+     * @param key the cache key
+     * @return the content of the page, null if not persisted
+     */
+    private URLContent load(String key)
+    {
+        if (this.directory == null) {
+            return null;
+        }
+
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(FileUtils.openInputStream(file));
+            String type = input.readUTF();
+            return new URLContent(type.isEmpty() ? null : type, IOUtils.toByteArray(input));
+        } catch (IOException exception) {
+            System.out.println("WARNING, Failed to read cached page [" + file + "]: " + exception.getMessage());
+            return null;
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Persist a page for the next runs, if it was successfully downloaded.
+     * 
+     * @param key the cache key
+     * @param content the content of the page
+     */
+    private void store(String key, URLContent content)
+    {
+        if (this.directory == null || content.getStatus() != HttpStatus.SC_OK) {
+            return;
+        }
+
+        File file = getFile(key);
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(FileUtils.openOutputStream(file));
+            output.writeUTF(content.getType() == null ? "" : content.getType().toString());
+            output.write(content.getContent());
+            this.storedKeys.add(key);
+        } catch (IOException exception) {
+            System.out.println("WARNING, Failed to cache page [" + file + "]: " + exception.getMessage());
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
+    }
+
+    private File getFile(String key)
+    {
+        return new File(this.directory, DigestUtils.sha1Hex(key));
+    }
+
+    /**
+     * @return a string identifying the tested WAR and XAR files
+     */
+    private static String getFingerprint()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String property : new String[] {"pathToXWikiWar", "pathToXWikiXar"}) {
+            File file = new File(System.getProperty("localRepository"), System.getProperty(property, ""));
+            builder.append(file.getAbsolutePath()).append(' ').append(file.lastModified()).append('\n');
+        }
+        return DigestUtils.sha1Hex(builder.toString());
+    }
+}
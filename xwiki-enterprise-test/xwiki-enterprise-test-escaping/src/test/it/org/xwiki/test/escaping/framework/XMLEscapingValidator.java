@@ -23,8 +23,11 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.xwiki.validator.ValidationError;
 import org.xwiki.validator.ValidationError.Type;
@@ -33,6 +36,11 @@
 /**
  * A validator that checks for proper XML escaping. The document must be constructed using the special test input string
  * (see {@link #getTestString()}).
+ * <p>
+ * The document is read once, line by line, by a single automaton matching all the searched strings at the same time,
+ * so big documents are validated without being held in memory. Only the positions of the recent matches are kept,
+ * which is enough for the checks since they only look at the few characters around each match. The errors found are
+ * kept until the next call to {@link #setDocument(Reader)}, so that {@link #validate()} can be called several times.
  * 
  * @version $Id$
  * @since 2.5M1
@@ -60,8 +68,40 @@ public class XMLEscapingValidator implements Validator
     /** JavaScript-escaped TEST_QUOT. */
     private static final String TEST_JS_QUOT = "aaa\\\"bbb";
 
-    /** Source of the XML document to validate. */
-    private List<String> document = new ArrayList<String>();
+    /** Strings signaling a problem in the response, with the corresponding warning. */
+    private static final String[][] WARNINGS = {
+        {"Error while parsing velocity page", "Parse error in the response. The template was not evaluated correctly."},
+        {"org.xwiki.rendering.macro.MacroExecutionException", "Macro execution exception in the response."},
+        {"Wrapped Exception: unexpected char:", "Possible SQL error trace."}};
+
+    /** All the searched strings, the warnings come after the tests. */
+    private static final String[] PATTERNS;
+
+    /** Index of the first warning in {@link #PATTERNS}. */
+    private static final int FIRST_WARNING = 6;
+
+    /** Automaton matching all {@link #PATTERNS} at the same time. */
+    private static final Automaton AUTOMATON;
+
+    static {
+        PATTERNS = new String[FIRST_WARNING + WARNINGS.length];
+        PATTERNS[0] = TEST_APOS;
+        PATTERNS[1] = TEST_QUOT;
+        PATTERNS[2] = TEST_LT;
+        PATTERNS[3] = TEST_GT;
+        PATTERNS[4] = TEST_JS_APOS;
+        PATTERNS[5] = TEST_JS_QUOT;
+        for (int i = 0; i < WARNINGS.length; i++) {
+            PATTERNS[FIRST_WARNING + i] = WARNINGS[i][0];
+        }
+        AUTOMATON = new Automaton(PATTERNS);
+    }
+
+    /** Source of the XML document to validate, null once read. */
+    private Reader document;
+
+    /** Errors found when reading the document, null if not read yet. */
+    private List<ValidationError> documentErrors;
 
     /** List of validation errors. */
     private List<ValidationError> errors = new ArrayList<ValidationError>();
@@ -79,7 +119,7 @@ public static String getTestString()
     /**
      * {@inheritDoc}
      * <p>
-     * Clears previous list of validation errors.
+     * Clears previous list of validation errors. The document is only read by the first call to {@link #validate()}.
      * </p>
      * 
      * @see org.xwiki.validator.Validator#setDocument(java.io.InputStream)
@@ -87,23 +127,28 @@ public static String getTestString()
     @Override
     public void setDocument(InputStream document)
     {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(document));
-        String line;
-        this.document = new ArrayList<String>();
-        try {
-            while ((line = reader.readLine()) != null) {
-                this.document.add(line);
-            }
-        } catch (IOException exception) {
-            throw new RuntimeException("Could not read document: ", exception);
-        }
+        setDocument(new InputStreamReader(document));
+    }
+
+    /**
+     * Set the document to validate, as characters. Clears previous list of validation errors. The document is only
+     * read by the first call to {@link #validate()}.
+     * 
+     * @param document the document to validate
+     * @since 9.5RC1
+     */
+    public void setDocument(Reader document)
+    {
+        this.document = document instanceof BufferedReader ? document : new BufferedReader(document);
+        this.documentErrors = null;
         clear();
     }
 
     /**
      * {@inheritDoc}
      * <p>
-     * Throws {@link EscapingError} on errors.
+     * Throws {@link EscapingError} on errors. The document is read by the first call, the next ones return the same
+     * errors without reading it again.
      * </p>
      * 
      * @see org.xwiki.validator.Validator#validate()
@@ -112,106 +157,44 @@ public void setDocument(InputStream document)
     public List<ValidationError> validate()
     {
         clear();
-
-        int lineNr = 1;
-        for (String line : this.document) {
-            checkStringDelimiters(line, lineNr);
-            checkTagDelimiter(line, lineNr, TEST_LT, "Unescaped < character");
-            checkTagDelimiter(line, lineNr, TEST_GT, "Unescaped > character");
-
-            int idx;
-            if ((idx = line.indexOf("Error while parsing velocity page")) >= 0) {
-                this.errors.add(new ValidationError(Type.WARNING, lineNr, idx,
-                    "Parse error in the response. The template was not evaluated correctly."));
-            }
-            if ((idx = line.indexOf("org.xwiki.rendering.macro.MacroExecutionException")) >= 0) {
-                this.errors.add(new ValidationError(Type.WARNING, lineNr, idx,
-                    "Macro execution exception in the response."));
-            }
-            if ((idx = line.indexOf("Wrapped Exception: unexpected char:")) >= 0) {
-                this.errors.add(new ValidationError(Type.WARNING, lineNr, idx, "Possible SQL error trace."));
-            }
-            // TODO also check \ for JavaScript
-            // TODO check for overescaping
-            lineNr++;
+        if (this.document != null) {
+            scan();
+            this.documentErrors = this.errors;
+            clear();
         }
-        return this.errors;
-    }
-
-    /**
-     * Check whether < and > are properly escaped. Attempts to avoid false positives caused by JavaScript escaping.
-     * Found problems are added to the internal list of escaping errors.
-     * 
-     * @param line the line to check
-     * @param lineNr line number reported on failures
-     * @param testMatch the test string to search for, e.g. TEST_LT
-     * @param errorMessage error message to use on failures
-     */
-    private void checkTagDelimiter(String line, int lineNr, String testMatch, String errorMessage)
-    {
-        // NOTE this method produces false NEGATIVES if JavaScript escaping is used where XML/URL escaping is needed
-        int idx = 0;
-        while ((idx = line.indexOf(testMatch, idx)) >= 0) {
-            // avoid false positives caused by JavaScript escaping
-            if (!isJavascriptEscaped(line, testMatch, idx)) {
-                this.errors.add(new ValidationError(Type.ERROR, lineNr, idx, errorMessage));
-            }
-            idx++;
+        if (this.documentErrors != null) {
+            this.errors.addAll(this.documentErrors);
         }
+        return this.errors;
     }
 
     /**
-     * Check whether quote and apostrophe are properly escaped. Attempts to avoid false positives caused by XML escaping
-     * inside tags (where only <, > and & are escaped). Found problems are added to the internal list of escaping
-     * errors.
-     * 
-     * @param line the line to check
-     * @param lineNr line number reported on failures
+     * Read the document and add the errors found to {@link #errors}.
      */
-    private void checkStringDelimiters(String line, int lineNr)
+    private void scan()
     {
-        // NOTE this method produces false NEGATIVES if XML-tag escaping method is used inside tag attributes (unlikely)
-        final int offset = INPUT_STRING.indexOf(TEST_APOS) - INPUT_STRING.indexOf(TEST_QUOT);
-        int idx = 0;
-        while ((idx = line.indexOf(TEST_APOS, idx)) >= 0) {
-            // ignore if quote was not escaped either
-            int expected_idx = idx - offset;
-            if (expected_idx < 0 || line.indexOf(TEST_QUOT, expected_idx) != expected_idx) {
-                this.errors.add(new ValidationError(Type.WARNING, lineNr, idx, "Unescaped ' character"));
-            }
-            idx++;
-        }
-        idx = 0;
-        while ((idx = line.indexOf(TEST_QUOT, idx)) >= 0) {
-            // ignore if apostrophe was not escaped either
-            int expected_idx = idx + offset;
-            if (expected_idx < 0 || line.indexOf(TEST_APOS, expected_idx) != expected_idx) {
-                this.errors.add(new ValidationError(Type.WARNING, lineNr, idx, "Unescaped \" character"));
+        LineScanner scanner = new LineScanner();
+        try {
+            boolean afterCR = false;
+            int c;
+            while ((c = this.document.read()) >= 0) {
+                // line terminators as in BufferedReader#readLine()
+                if (c == '\n' && afterCR) {
+                    afterCR = false;
+                } else if (c == '\n' || c == '\r') {
+                    afterCR = c == '\r';
+                    scanner.endLine();
+                } else {
+                    afterCR = false;
+                    scanner.next((char) c);
+                }
             }
-            idx++;
-        }
-    }
-
-    /**
-     * Check if the matched test string appears to be JavaScript-escaped. Checks whether both ' and " appearing in the
-     * test string right before index are JavaScript-escaped. Used to avoid false positives in {@link #validate()}.
-     * 
-     * @param line the line where the string was matched
-     * @param match substring of the test string that was matched, e.g. TEST_APOS
-     * @param index position where the match was found in line, as reported by {@link String#indexOf(String, int)}
-     * @return true if the found input string is JavaScript-escaped, false otherwise
-     */
-    private boolean isJavascriptEscaped(String line, String match, int index)
-    {
-        int offset = INPUT_STRING.indexOf(match);
-        if (index < 0 || offset < 0) {
-            return false;
+            scanner.endLine();
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not read document: ", exception);
+        } finally {
+            this.document = null;
         }
-        // JavaScript-escaping adds 2 characters
-        offset += 2;
-        int pos_apos = line.indexOf(TEST_JS_APOS, index - offset);
-        int pos_quot = line.indexOf(TEST_JS_QUOT, index - offset);
-        return (pos_apos >= 0 && pos_apos < index && pos_quot >= 0 && pos_quot < index);
     }
 
     @Override
@@ -231,4 +214,285 @@ public String getName()
     {
         return "XML ESCAPING";
     }
+
+    /**
+     * Scans the document character by character and reports the errors of each line in the same order as a line by
+     * line scan would: unescaped apostrophes, unescaped quotes, unescaped &lt;, unescaped &gt; and then the warnings.
+     */
+    private class LineScanner
+    {
+        /** Quotes are checked once the apostrophe which may follow them is read. */
+        private final int quoteCheckDelay = INPUT_STRING.indexOf(TEST_APOS) - INPUT_STRING.indexOf(TEST_QUOT)
+            + TEST_APOS.length() - 1;
+
+        /** Number of the current line, starting at 1. */
+        private int lineNr = 1;
+
+        /** Position of the current character in the line. */
+        private int position = -1;
+
+        /** Current state of the automaton. */
+        private int state;
+
+        /**
+         * Start positions of the recent matches of each pattern: bit {@code n} is set if a match started {@code n}
+         * characters before the current one.
+         */
+        private final long[] recentMatches = new long[PATTERNS.length];
+
+        /** Whether each warning was already reported on this line. */
+        private final boolean[] warned = new boolean[WARNINGS.length];
+
+        /** Start positions of the quotes not checked yet. */
+        private final List<Integer> pendingQuotes = new ArrayList<Integer>();
+
+        /** Errors of the current line, one list for each kind of error in the order they are reported. */
+        private final List<List<ValidationError>> lineErrors = new ArrayList<List<ValidationError>>();
+
+        /**
+         * Create new LineScanner.
+         */
+        LineScanner()
+        {
+            for (int i = 0; i < 4 + WARNINGS.length; i++) {
+                this.lineErrors.add(new ArrayList<ValidationError>());
+            }
+        }
+
+        /**
+         * Scan the next character of the line.
+         * 
+         * @param c the character
+         */
+        void next(char c)
+        {
+            this.position++;
+            for (int i = 0; i < this.recentMatches.length; i++) {
+                this.recentMatches[i] <<= 1;
+            }
+
+            this.state = AUTOMATON.next(this.state, c);
+            int[] matches = AUTOMATON.getMatches(this.state);
+            // record all the matches before checking them, since the checks look at the other matches
+            for (int pattern : matches) {
+                this.recentMatches[pattern] |= 1L << (PATTERNS[pattern].length() - 1);
+            }
+            for (int pattern : matches) {
+                check(pattern, this.position - PATTERNS[pattern].length() + 1);
+            }
+            while (!this.pendingQuotes.isEmpty()
+                && this.pendingQuotes.get(0) + this.quoteCheckDelay <= this.position) {
+                checkQuote(this.pendingQuotes.remove(0));
+            }
+        }
+
+        /**
+         * Finish the current line and report its errors.
+         */
+        void endLine()
+        {
+            while (!this.pendingQuotes.isEmpty()) {
+                checkQuote(this.pendingQuotes.remove(0));
+            }
+            for (List<ValidationError> list : this.lineErrors) {
+                XMLEscapingValidator.this.errors.addAll(list);
+                list.clear();
+            }
+
+            this.lineNr++;
+            this.position = -1;
+            this.state = 0;
+            for (int i = 0; i < this.recentMatches.length; i++) {
+                this.recentMatches[i] = 0;
+            }
+            for (int i = 0; i < this.warned.length; i++) {
+                this.warned[i] = false;
+            }
+        }
+
+        /**
+         * Check a match which just ended.
+         * 
+         * @param pattern index of the matched pattern
+         * @param start position of the match in the line
+         */
+        private void check(int pattern, int start)
+        {
+            String match = PATTERNS[pattern];
+            if (TEST_APOS.equals(match)) {
+                // ignore if quote was not escaped either
+                int quoteStart = start - (INPUT_STRING.indexOf(TEST_APOS) - INPUT_STRING.indexOf(TEST_QUOT));
+                if (quoteStart < 0 || !startedAt(1, quoteStart)) {
+                    addError(0, Type.WARNING, start, "Unescaped ' character");
+                }
+            } else if (TEST_QUOT.equals(match)) {
+                // checked once the apostrophe which may follow it is read
+                this.pendingQuotes.add(start);
+            } else if (TEST_LT.equals(match)) {
+                if (!isJavascriptEscaped(match, start)) {
+                    addError(2, Type.ERROR, start, "Unescaped < character");
+                }
+            } else if (TEST_GT.equals(match)) {
+                if (!isJavascriptEscaped(match, start)) {
+                    addError(3, Type.ERROR, start, "Unescaped > character");
+                }
+            } else if (pattern >= FIRST_WARNING && !this.warned[pattern - FIRST_WARNING]) {
+                this.warned[pattern - FIRST_WARNING] = true;
+                addError(4 + pattern - FIRST_WARNING, Type.WARNING, start, WARNINGS[pattern - FIRST_WARNING][1]);
+            }
+        }
+
+        /**
+         * Check a quote once the apostrophe which may follow it is read, or the line is finished.
+         * 
+         * @param start position of the quote in the line
+         */
+        private void checkQuote(int start)
+        {
+            // ignore if apostrophe was not escaped either
+            int aposStart = start + INPUT_STRING.indexOf(TEST_APOS) - INPUT_STRING.indexOf(TEST_QUOT);
+            if (aposStart > this.position || !startedAt(0, aposStart)) {
+                addError(1, Type.WARNING, start, "Unescaped \" character");
+            }
+        }
+
+        /**
+         * Check if the matched test string appears to be JavaScript-escaped, i.e. if both ' and " appearing in the
+         * test string right before it are JavaScript-escaped.
+         * 
+         * @param match substring of the test string that was matched, e.g. TEST_LT
+         * @param start position of the match in the line
+         * @return true if the found input string is JavaScript-escaped, false otherwise
+         */
+        private boolean isJavascriptEscaped(String match, int start)
+        {
+            // JavaScript-escaping adds 2 characters
+            int offset = INPUT_STRING.indexOf(match) + 2;
+            return startedBetween(4, start - offset, start) && startedBetween(5, start - offset, start);
+        }
+
+        /**
+         * @return true if the given pattern matched at the given position of the line
+         */
+        private boolean startedAt(int pattern, int start)
+        {
+            return startedBetween(pattern, start, start + 1);
+        }
+
+        /**
+         * @return true if the given pattern matched at a position between {@code from} (inclusive) and {@code to}
+         *         (exclusive) of the line
+         */
+        private boolean startedBetween(int pattern, int from, int to)
+        {
+            for (int start = Math.max(0, from); start < to; start++) {
+                if ((this.recentMatches[pattern] & (1L << (this.position - start))) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void addError(int kind, Type type, int column, String message)
+        {
+            this.lineErrors.get(kind).add(new ValidationError(type, this.lineNr, column, message));
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton finding all the occurrences of several strings in a single pass.
+     */
+    private static final class Automaton
+    {
+        /** Transitions of each state. */
+        private final List<Map<Character, Integer>> transitions = new ArrayList<Map<Character, Integer>>();
+
+        /** Fallback state of each state, used when there is no transition for a character. */
+        private final List<Integer> failures = new ArrayList<Integer>();
+
+        /** Indexes of the patterns ending at each state. */
+        private final List<int[]> matches = new ArrayList<int[]>();
+
+        /**
+         * Build the automaton.
+         * 
+         * @param patterns the strings to search for
+         */
+        Automaton(String[] patterns)
+        {
+            addState();
+            for (int i = 0; i < patterns.length; i++) {
+                int state = 0;
+                for (char c : patterns[i].toCharArray()) {
+                    Integer next = this.transitions.get(state).get(c);
+                    if (next == null) {
+                        next = addState();
+                        this.transitions.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                this.matches.set(state, append(this.matches.get(state), i));
+            }
+
+            // breadth first, so that the failure of the parent is known
+            List<Integer> queue = new ArrayList<Integer>(this.transitions.get(0).values());
+            for (int i = 0; i < queue.size(); i++) {
+                int state = queue.get(i);
+                for (Map.Entry<Character, Integer> transition : this.transitions.get(state).entrySet()) {
+                    int child = transition.getValue();
+                    int failure = next(this.failures.get(state), transition.getKey());
+                    this.failures.set(child, failure);
+                    for (int pattern : this.matches.get(failure)) {
+                        this.matches.set(child, append(this.matches.get(child), pattern));
+                    }
+                    queue.add(child);
+                }
+            }
+        }
+
+        /**
+         * @param state the current state
+         * @param c the next character
+         * @return the next state
+         */
+        int next(int state, char c)
+        {
+            int current = state;
+            while (true) {
+                Integer next = this.transitions.get(current).get(c);
+                if (next != null) {
+                    return next;
+                }
+                if (current == 0) {
+                    return 0;
+                }
+                current = this.failures.get(current);
+            }
+        }
+
+        /**
+         * @param state a state
+         * @return the indexes of the patterns ending at this state
+         */
+        int[] getMatches(int state)
+        {
+            return this.matches.get(state);
+        }
+
+        private int addState()
+        {
+            this.transitions.add(new HashMap<Character, Integer>());
+            this.failures.add(0);
+            this.matches.add(new int[0]);
+            return this.transitions.size() - 1;
+        }
+
+        private static int[] append(int[] array, int value)
+        {
+            int[] result = new int[array.length + 1];
+            System.arraycopy(array, 0, result, 0, array.length);
+            result[array.length] = value;
+            return result;
+        }
+    }
 }
@@ -0,0 +1,204 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.escaping.framework;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.validator.ValidationError;
+
+/**
+ * Unit tests for {@link XMLEscapingValidator}: the reported errors, with their line and column, and the equivalence
+ * with the line by line implementation it replaced. Doesn't need XWiki.
+ * 
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class XMLEscapingValidatorTest
+{
+    /** The test string and its parts, which make the validator report errors, and escaped variants. */
+    private static final String[] PIECES = {XMLEscapingValidator.getTestString(), "aaa\"bbb", "bbb'ccc", "ccc>ddd",
+        "ddd<eee", "aaa\\\"bbb", "bbb\\'ccc", "aaa\\\"bbb\\'ccc>ddd<eee", "aaa&quot;bbb&#39;ccc&gt;ddd&lt;eee",
+        "Error while parsing velocity page", "org.xwiki.rendering.macro.MacroExecutionException",
+        "Wrapped Exception: unexpected char:", "aaa", "bbb", "\"", "'", "<", ">", "\\", " ", "x", "\n", "\r",
+        "\r\n"};
+
+    @Test
+    public void testEscapedString()
+    {
+        assertErrors("<p>aaa&quot;bbb&#39;ccc&gt;ddd&lt;eee</p>");
+    }
+
+    @Test
+    public void testUnescapedString()
+    {
+        // grouped by kind of error and not by column, quotes and apostrophes are ignored when both are unescaped
+        assertErrors("<p>\n<p>" + XMLEscapingValidator.getTestString() + "</p>",
+            "ERROR 2:15 Unescaped < character", "ERROR 2:11 Unescaped > character");
+    }
+
+    @Test
+    public void testUnescapedApostrophe()
+    {
+        assertErrors("<p>aaa&quot;bbb'ccc&gt;ddd&lt;eee</p>", "WARNING 1:12 Unescaped ' character");
+    }
+
+    @Test
+    public void testUnescapedQuote()
+    {
+        assertErrors("<a title=\"aaa\"bbb&#39;ccc\">", "WARNING 1:10 Unescaped \" character");
+    }
+
+    @Test
+    public void testJavaScriptEscapedString()
+    {
+        assertErrors("var s = 'aaa\\\"bbb\\'ccc>ddd<eee';");
+    }
+
+    @Test
+    public void testWarningsAndLineTerminators()
+    {
+        // each warning is only reported once per line
+        assertErrors("a\r\nError while parsing velocity page Error while parsing velocity page\r"
+            + "at org.xwiki.rendering.macro.MacroExecutionException\n\nddd<eee",
+            "WARNING 2:0 Parse error in the response. The template was not evaluated correctly.",
+            "WARNING 3:3 Macro execution exception in the response.", "ERROR 5:0 Unescaped < character");
+    }
+
+    @Test
+    public void testValidateSeveralTimes()
+    {
+        XMLEscapingValidator validator = new XMLEscapingValidator();
+        validator.setDocument(new StringReader("ddd<eee"));
+
+        Assert.assertEquals(Arrays.asList("ERROR 1:0 Unescaped < character"), format(validator.validate()));
+        Assert.assertEquals(Arrays.asList("ERROR 1:0 Unescaped < character"), format(validator.validate()));
+        validator.clear();
+        Assert.assertTrue(validator.getErrors().isEmpty());
+        Assert.assertEquals(Arrays.asList("ERROR 1:0 Unescaped < character"), format(validator.validate()));
+
+        validator.setDocument(new StringReader("ccc>ddd"));
+        Assert.assertTrue(validator.getErrors().isEmpty());
+        Assert.assertEquals(Arrays.asList("ERROR 1:0 Unescaped > character"), format(validator.validate()));
+    }
+
+    /**
+     * Compare the errors with the ones of the previous implementation on random documents built from the strings
+     * which make the validator report errors.
+     */
+    @Test
+    public void testSameErrorsAsLineByLineValidation() throws IOException
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder document = new StringBuilder();
+            for (int j = random.nextInt(40); j > 0; j--) {
+                document.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+
+            XMLEscapingValidator validator = new XMLEscapingValidator();
+            validator.setDocument(new StringReader(document.toString()));
+            Assert.assertEquals("Document [" + document + "]", validateLineByLine(document.toString()),
+                format(validator.validate()));
+        }
+    }
+
+    private void assertErrors(String document, String... expected)
+    {
+        XMLEscapingValidator validator = new XMLEscapingValidator();
+        validator.setDocument(new StringReader(document));
+        Assert.assertEquals(Arrays.asList(expected), format(validator.validate()));
+    }
+
+    private static List<String> format(List<ValidationError> errors)
+    {
+        List<String> result = new ArrayList<String>();
+        for (ValidationError error : errors) {
+            result.add(format(error.getType().toString(), error.getLine(), error.getColumn(), error.getMessage()));
+        }
+        return result;
+    }
+
+    private static String format(String type, int line, int column, String message)
+    {
+        return type + ' ' + line + ':' + column + ' ' + message;
+    }
+
+    /**
+     * The implementation of {@link XMLEscapingValidator#validate()} before 9.5RC1, which searched each line several
+     * times.
+     */
+    private static List<String> validateLineByLine(String document) throws IOException
+    {
+        String input = XMLEscapingValidator.getTestString();
+        int offset = input.indexOf("bbb'ccc") - input.indexOf("aaa\"bbb");
+        List<String> errors = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new StringReader(document));
+        int lineNr = 1;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            for (int idx = line.indexOf("bbb'ccc"); idx >= 0; idx = line.indexOf("bbb'ccc", idx + 1)) {
+                if (idx - offset < 0 || line.indexOf("aaa\"bbb", idx - offset) != idx - offset) {
+                    errors.add(format("WARNING", lineNr, idx, "Unescaped ' character"));
+                }
+            }
+            for (int idx = line.indexOf("aaa\"bbb"); idx >= 0; idx = line.indexOf("aaa\"bbb", idx + 1)) {
+                if (line.indexOf("bbb'ccc", idx + offset) != idx + offset) {
+                    errors.add(format("WARNING", lineNr, idx, "Unescaped \" character"));
+                }
+            }
+            checkTagDelimiterLineByLine(line, lineNr, "ddd<eee", "Unescaped < character", errors);
+            checkTagDelimiterLineByLine(line, lineNr, "ccc>ddd", "Unescaped > character", errors);
+            String[][] warnings = {
+                {"Error while parsing velocity page",
+                    "Parse error in the response. The template was not evaluated correctly."},
+                {"org.xwiki.rendering.macro.MacroExecutionException", "Macro execution exception in the response."},
+                {"Wrapped Exception: unexpected char:", "Possible SQL error trace."}};
+            for (String[] warning : warnings) {
+                int idx = line.indexOf(warning[0]);
+                if (idx >= 0) {
+                    errors.add(format("WARNING", lineNr, idx, warning[1]));
+                }
+            }
+            lineNr++;
+        }
+        return errors;
+    }
+
+    private static void checkTagDelimiterLineByLine(String line, int lineNr, String match, String message,
+        List<String> errors)
+    {
+        // JavaScript-escaping adds 2 characters
+        int offset = XMLEscapingValidator.getTestString().indexOf(match) + 2;
+        for (int idx = line.indexOf(match); idx >= 0; idx = line.indexOf(match, idx + 1)) {
+            int aposIdx = line.indexOf("bbb\\'ccc", idx - offset);
+            int quotIdx = line.indexOf("aaa\\\"bbb", idx - offset);
+            if (aposIdx < 0 || aposIdx >= idx || quotIdx < 0 || quotIdx >= idx) {
+                errors.add(format("ERROR", lineNr, idx, message));
+            }
+        }
+    }
+}
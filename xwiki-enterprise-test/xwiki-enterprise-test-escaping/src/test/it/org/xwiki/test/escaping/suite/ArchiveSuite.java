@@ -30,9 +30,17 @@
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -44,11 +52,14 @@
 import org.junit.runner.Description;
 import org.junit.runner.Runner;
 import org.junit.runner.manipulation.Sorter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.ParentRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.RunnerScheduler;
 import org.junit.runners.model.Statement;
 import org.junit.runners.model.TestClass;
 
@@ -67,11 +78,21 @@
  * <p>
  * The lifetime of each {@link FileTest} is as follows:
  * <ul>
- * <li>An instance of the file test class is created.</li>
- * <li>The method {@link #initialize(String, Reader)} is called.</li>
+ * <li>An instance of the file test class is created when the archive is listed.</li>
+ * <li>The method {@link FileTest#accept(String)} is called, the test is dropped if it returns false.</li>
+ * <li>Right before the test is run, the method {@link FileTest#initialize(String, Reader)} is called, or
+ * {@link FileTest#initialize(String, Object)} if a file with the same CRC was already parsed.</li>
  * <li>The stream associated with the {@link Reader} that was used to initialize the test is closed.</li>
  * <li>All methods marked with the &#064;{@link Test} annotation are called.</li>
  * </ul></p>
+ * <p>
+ * The tests of several files can be run at the same time by a pool of threads, whose size is given by the
+ * "escapingThreads" system property (1 by default). The tests are then responsible for not sharing any state
+ * between the threads. The methods marked with &#064;{@link BeforeSuite} and &#064;{@link AfterSuite} are still
+ * called once, from the calling thread.</p>
+ * <p>
+ * The files whose tests passed can be recorded in a {@link TestManifest}, to only test the files which changed on the
+ * next runs.</p>
  * 
  * @version $Id$
  * @since 2.5M1
@@ -136,12 +157,30 @@ public class ArchiveSuite extends ParentRunner<Runner>
         // no attributes
     }
 
+    /** Name of the system property holding the number of files to test at the same time. */
+    public static final String THREADS = "escapingThreads";
+
     /** List of test runners build, one for each matching file found in the archive. */
     private final List<Runner> runners;
 
     /** Path to the archive. */
     private final String archivePath;
 
+    /** The archive, open until the tests are run. */
+    private ZipFile archive;
+
+    /** Content parsed by the tests, keyed by CRC and size of the archive entry. */
+    private final ConcurrentMap<String, Object> parsedContents = new ConcurrentHashMap<String, Object>();
+
+    /** The files whose tests passed in the previous runs. */
+    private final TestManifest manifest;
+
+    /** Fingerprints of the files tested during this run, by file name. */
+    private final ConcurrentMap<String, String> testedFiles = new ConcurrentHashMap<String, String>();
+
+    /** Tests which failed during this run. */
+    private final Set<Description> failures = Collections.newSetFromMap(new ConcurrentHashMap<Description, Boolean>());
+
 
     /**
      * Create new ArchiveSuite.
@@ -155,7 +194,17 @@ public ArchiveSuite(Class<?> klass, RunnerBuilder builder) throws Initialization
         super(klass);
         validateTestClass();
         this.archivePath = getArchiveFromAnnotation();
+        try {
+            this.manifest = new TestManifest(klass.getName());
+        } catch (IOException exception) {
+            throw new InitializationError(exception);
+        }
         this.runners = createRunners(this.archivePath);
+
+        int threads = Integer.getInteger(THREADS, 1);
+        if (threads > 1) {
+            setScheduler(new WorkerPoolScheduler(threads));
+        }
     }
 
     @Override
@@ -170,12 +219,42 @@ protected Description describeChild(Runner child)
         return child.getDescription();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Called from one of the worker threads when the tests are run in parallel.
+     */
     @Override
     protected void runChild(Runner child, RunNotifier notifier)
     {
         child.run(notifier);
     }
 
+    @Override
+    public void run(RunNotifier notifier)
+    {
+        RunListener failureListener = new RunListener()
+        {
+            @Override
+            public void testFailure(Failure failure)
+            {
+                ArchiveSuite.this.failures.add(failure.getDescription());
+            }
+        };
+        notifier.addListener(failureListener);
+        try {
+            super.run(notifier);
+        } finally {
+            notifier.removeListener(failureListener);
+            updateManifest();
+            try {
+                this.archive.close();
+            } catch (IOException exception) {
+                // ignore, the tests are done
+            }
+        }
+    }
+
     @Override
     protected String getName()
     {
@@ -199,7 +278,7 @@ public int compare(Description o1, Description o2) {
     }
 
     /**
-     * Read the archive and build a list of runners for its content.
+     * List the archive and build a list of runners for its content. The files are only read when the tests are run.
      * 
      * @param archivePath path to the archive to use
      * @return a list of test runners
@@ -209,17 +288,15 @@ private List<Runner> createRunners(String archivePath) throws InitializationErro
     {
         List<Runner> list = new ArrayList<Runner>();
         try {
-            final ZipFile archive = new ZipFile(archivePath);
-            Enumeration< ? extends ZipEntry> entries = archive.entries();
+            this.archive = new ZipFile(archivePath);
+            Enumeration< ? extends ZipEntry> entries = this.archive.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
                 if (entry.isDirectory()) {
                     continue;
                 }
-                Reader reader = new InputStreamReader(archive.getInputStream(entry));
-                addTest(list, entry.getName(), reader);
+                addTest(list, entry);
             }
-            archive.close();
         } catch (IOException exception) {
             throw new InitializationError(exception);
         }
@@ -227,20 +304,27 @@ private List<Runner> createRunners(String archivePath) throws InitializationErro
     }
 
     /**
-     * Create and initialize an instance of the test class for given file.
+     * Create an instance of the test class for given file, initialized when it is run.
      * 
-     * @param name file name to use
-     * @param reader the reader associated with the file data
+     * @param list the list of runners to add the test to
+     * @param entry the archive entry of the file
      * @throws InitializationError on errors
      */
-    private void addTest(List<Runner> list, String name, Reader reader) throws InitializationError
+    private void addTest(List<Runner> list, final ZipEntry entry) throws InitializationError
     {
         try {
             Object result = getTestClass().getOnlyConstructor().newInstance();
             if (result instanceof FileTest) {
-                FileTest test = (FileTest) result;
-                if (test.initialize(name, reader)) {
-                    list.add(new FileTestRunner(test));
+                final FileTest test = (FileTest) result;
+                if (test.accept(entry.getName())) {
+                    list.add(new FileTestRunner(test, entry.getName(), new Callable<Boolean>()
+                    {
+                        @Override
+                        public Boolean call() throws IOException
+                        {
+                            return initializeTest(test, entry);
+                        }
+                    }));
                 }
                 return;
             }
@@ -248,7 +332,68 @@ private void addTest(List<Runner> list, String name, Reader reader) throws Initi
             // should not happen, since the test class was validated before
             throw new InitializationError(exception);
         }
-        throw new InitializationError("Failed to initialize the test for \"" + name + "\"");
+        throw new InitializationError("Failed to initialize the test for \"" + entry.getName() + "\"");
+    }
+
+    /**
+     * Initialize a test, reusing the content parsed for a file with the same CRC if possible. Called by the thread
+     * running the test.
+     * 
+     * @param test the test to initialize
+     * @param entry the archive entry of the file
+     * @return true if the test should be run, false otherwise
+     * @throws IOException when failing to read the file
+     */
+    private boolean initializeTest(FileTest test, ZipEntry entry) throws IOException
+    {
+        String key = entry.getCrc() + ":" + entry.getSize();
+        Object parsedContent = entry.getCrc() < 0 ? null : this.parsedContents.get(key);
+        if (parsedContent == null || !test.initialize(entry.getName(), parsedContent)) {
+            Reader reader = new InputStreamReader(this.archive.getInputStream(entry));
+            try {
+                if (!test.initialize(entry.getName(), reader)) {
+                    return false;
+                }
+            } finally {
+                reader.close();
+            }
+            parsedContent = test.getParsedContent();
+            if (parsedContent != null && entry.getCrc() >= 0) {
+                this.parsedContents.putIfAbsent(key, parsedContent);
+            }
+        }
+
+        String fingerprint = TestManifest.getFingerprint(entry, parsedContent);
+        if (this.manifest.isUnchanged(entry.getName(), fingerprint)) {
+            System.out.println("Skipping unchanged file: " + entry.getName());
+            return false;
+        }
+        this.testedFiles.put(entry.getName(), fingerprint);
+        return true;
+    }
+
+    /**
+     * Record the files whose tests passed in the manifest.
+     */
+    private void updateManifest()
+    {
+        for (Runner runner : this.runners) {
+            Description description = runner.getDescription();
+            String fingerprint = this.testedFiles.get(description.getDisplayName());
+            if (fingerprint != null) {
+                boolean passed = !this.failures.contains(description);
+                for (Description child : description.getChildren()) {
+                    passed &= !this.failures.contains(child);
+                }
+                this.manifest.setResult(description.getDisplayName(), fingerprint, passed);
+            }
+        }
+
+        try {
+            this.manifest.save();
+        } catch (IOException exception) {
+            System.out.println("WARNING, Failed to save the manifest of the escaping tests: " + exception.getMessage());
+        }
     }
 
     /**
@@ -372,5 +517,41 @@ private String invokeGetter(Method getter) throws InitializationError
         }
         return null;
     }
-}
 
+    /**
+     * Runs the children on a fixed pool of worker threads and waits for all of them to finish.
+     */
+    private static final class WorkerPoolScheduler implements RunnerScheduler
+    {
+        /** The worker threads. */
+        private final ExecutorService workers;
+
+        /**
+         * Create new WorkerPoolScheduler.
+         * 
+         * @param threads number of worker threads
+         */
+        WorkerPoolScheduler(int threads)
+        {
+            this.workers = Executors.newFixedThreadPool(threads);
+        }
+
+        @Override
+        public void schedule(Runnable childStatement)
+        {
+            this.workers.submit(childStatement);
+        }
+
+        @Override
+        public void finished()
+        {
+            this.workers.shutdown();
+            try {
+                this.workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException exception) {
+                this.workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
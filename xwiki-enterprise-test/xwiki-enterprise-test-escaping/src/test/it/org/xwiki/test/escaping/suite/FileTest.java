@@ -35,6 +35,11 @@
  * <p>
  * Note that the {@link Reader} passed to {@link #initialize(String, Reader)} is invalidated right after the
  * initialization phase.</p>
+ * <p>
+ * {@link ArchiveSuite} only calls {@link #accept(String)} when listing the archive. The file is read and the test
+ * initialized right before it is run, so that big archives are not parsed up front. Tests can avoid parsing again
+ * the files having the same content by implementing {@link #getParsedContent()} and
+ * {@link #initialize(String, Object)}.</p>
  * 
  * @version $Id$
  * @since 2.5M1
@@ -50,5 +55,44 @@
      * @return true if the test was initialized successfully and should be executed, false otherwise
      */
     boolean initialize(String name, final Reader reader);
+
+    /**
+     * Check if the file can be tested, without reading it. Called when the archive is listed, the test is not created
+     * if this method returns false.
+     * 
+     * @param name file name to check
+     * @return true if the file should be read and tested, false otherwise
+     * @since 9.5RC1
+     */
+    default boolean accept(String name)
+    {
+        return true;
+    }
+
+    /**
+     * Get what was extracted from the file during the initialization, to initialize the tests of files having the same
+     * content with {@link #initialize(String, Object)}.
+     * 
+     * @return the content parsed by {@link #initialize(String, Reader)}, null if it can't be reused
+     * @since 9.5RC1
+     */
+    default Object getParsedContent()
+    {
+        return null;
+    }
+
+    /**
+     * Initialize the test with the content parsed from another file having the same content, instead of reading the
+     * file again.
+     * 
+     * @param name file name to use
+     * @param parsedContent the value returned by {@link #getParsedContent()} for the other file
+     * @return true if the test was initialized, false if {@link #initialize(String, Reader)} must be called instead
+     * @since 9.5RC1
+     */
+    default boolean initialize(String name, Object parsedContent)
+    {
+        return false;
+    }
 }
 
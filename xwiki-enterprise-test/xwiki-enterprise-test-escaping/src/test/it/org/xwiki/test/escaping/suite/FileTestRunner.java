@@ -20,6 +20,10 @@
 
 package org.xwiki.test.escaping.suite;
 
+import java.util.concurrent.Callable;
+
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
@@ -29,6 +33,8 @@
  * A custom runner that runs all tests methods found in the given {@link FileTest}. The most important
  * difference to the default JUnit4 test runner is that the tests are created and initialized by the parent
  * test suite.
+ * <p>
+ * The test can also be initialized lazily, right before it is run, in which case it is named after the file.</p>
  * 
  * @version $Id$
  * @since 2.5M1
@@ -38,6 +44,12 @@ public class FileTestRunner extends BlockJUnit4ClassRunner
     /** The test to run. */
     private final FileTest test;
 
+    /** Name of the test, null to use the test itself. */
+    private final String name;
+
+    /** Initializes the test before it is run, null if already initialized. */
+    private Callable<Boolean> initializer;
+
     /**
      * Create new FileTestRunner for the given file test.
      * 
@@ -45,9 +57,44 @@ public class FileTestRunner extends BlockJUnit4ClassRunner
      * @throws InitializationError on errors
      */
     public FileTestRunner(FileTest fileTest) throws InitializationError
+    {
+        this(fileTest, null, null);
+    }
+
+    /**
+     * Create new FileTestRunner for a file test which is initialized right before it is run.
+     * 
+     * @param fileTest the test to run
+     * @param name name of the tested file
+     * @param initializer initializes the test, returns false if the test should be skipped
+     * @throws InitializationError on errors
+     * @since 9.5RC1
+     */
+    public FileTestRunner(FileTest fileTest, String name, Callable<Boolean> initializer) throws InitializationError
     {
         super(fileTest.getClass());
         this.test = fileTest;
+        this.name = name;
+        this.initializer = initializer;
+    }
+
+    @Override
+    public void run(RunNotifier notifier)
+    {
+        if (this.initializer != null) {
+            try {
+                if (!this.initializer.call()) {
+                    notifier.fireTestIgnored(getDescription());
+                    return;
+                }
+            } catch (Exception exception) {
+                notifier.fireTestFailure(new Failure(getDescription(), exception));
+                return;
+            } finally {
+                this.initializer = null;
+            }
+        }
+        super.run(notifier);
     }
 
     @Override
@@ -59,13 +106,13 @@ protected Object createTest() throws Exception
     @Override
     protected String getName()
     {
-        return this.test.toString();
+        return this.name != null ? this.name : this.test.toString();
     }
 
     @Override
     protected String testName(FrameworkMethod method)
     {
-        return String.format("%-60s  %s", this.test.toString(), method.getName());
+        return String.format("%-60s  %s", getName(), method.getName());
     }
 }
 
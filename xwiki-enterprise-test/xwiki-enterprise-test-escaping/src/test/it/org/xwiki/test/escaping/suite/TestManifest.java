@@ -0,0 +1,160 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.escaping.suite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Remembers the files of an archive whose tests passed, with a fingerprint of their content and of what the tests
+ * parsed from them, so that the next runs can only test the files which changed since.
+ * <p>
+ * The following configuration properties are supported (set in maven):
+ * <ul>
+ * <li>escapingManifest (optional): Directory where the manifests are kept, one for each test class. Nothing is
+ * recorded if empty.</li>
+ * <li>escapingIncremental (optional): Skip the files which are unchanged since they last passed, false by default
+ * (full sweep)</li>
+ * </ul>
+ * 
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class TestManifest
+{
+    /** Name of the system property holding the directory of the manifests. */
+    public static final String DIRECTORY = "escapingManifest";
+
+    /** Name of the system property enabling the incremental mode. */
+    public static final String INCREMENTAL = "escapingIncremental";
+
+    /** The manifest file, null if the manifests are disabled. */
+    private final File file;
+
+    /** Whether the unchanged files are skipped. */
+    private final boolean incremental;
+
+    /** Fingerprints of the files whose tests passed, by file name. */
+    private final Properties fingerprints = new Properties();
+
+    /**
+     * Create new TestManifest, loading the manifest of the previous run if any.
+     * 
+     * @param name name of the manifest, e.g. the name of the test class
+     * @throws IOException when failing to read the manifest
+     */
+    public TestManifest(String name) throws IOException
+    {
+        String directory = System.getProperty(DIRECTORY, "");
+        this.file = directory.trim().isEmpty() ? null : new File(directory, name + ".properties");
+        this.incremental = this.file != null && Boolean.getBoolean(INCREMENTAL);
+
+        if (this.file != null && this.file.exists()) {
+            InputStream input = FileUtils.openInputStream(this.file);
+            try {
+                this.fingerprints.load(input);
+            } finally {
+                IOUtils.closeQuietly(input);
+            }
+        }
+    }
+
+    /**
+     * Compute the fingerprint of a file from its CRC, its size and the content parsed from it by the test.
+     * 
+     * @param entry the archive entry of the file
+     * @param parsedContent what the test parsed from the file, see {@link FileTest#getParsedContent()}
+     * @return the fingerprint
+     */
+    public static String getFingerprint(ZipEntry entry, Object parsedContent)
+    {
+        String content;
+        if (parsedContent instanceof Collection) {
+            // independent of the iteration order
+            List<String> values = new ArrayList<String>();
+            for (Object value : (Collection< ? >) parsedContent) {
+                values.add(String.valueOf(value));
+            }
+            Collections.sort(values);
+            content = values.toString();
+        } else {
+            content = String.valueOf(parsedContent);
+        }
+        return entry.getCrc() + ":" + entry.getSize() + ":" + content;
+    }
+
+    /**
+     * Check if a file can be skipped.
+     * 
+     * @param fileName the name of the file
+     * @param fingerprint the current fingerprint of the file
+     * @return true in incremental mode if the tests of the file passed with the same fingerprint, false otherwise
+     */
+    public boolean isUnchanged(String fileName, String fingerprint)
+    {
+        return this.incremental && fingerprint.equals(this.fingerprints.getProperty(fileName));
+    }
+
+    /**
+     * Record the result of the tests of a file. Failed files are forgotten so that they are tested again next time.
+     * 
+     * @param fileName the name of the file
+     * @param fingerprint the fingerprint of the file
+     * @param passed whether all the tests of the file passed
+     */
+    public void setResult(String fileName, String fingerprint, boolean passed)
+    {
+        if (passed) {
+            this.fingerprints.setProperty(fileName, fingerprint);
+        } else {
+            this.fingerprints.remove(fileName);
+        }
+    }
+
+    /**
+     * Write the manifest for the next runs.
+     * 
+     * @throws IOException when failing to write the manifest
+     */
+    public void save() throws IOException
+    {
+        if (this.file == null) {
+            return;
+        }
+
+        OutputStream output = FileUtils.openOutputStream(this.file);
+        try {
+            this.fingerprints.store(output, "Escaping tests which passed");
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.framework;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+
+/**
+ * Collects statistics about the HTTP traffic generated by the tests: bytes sent and received on the wire, connections
+ * opened, keep-alive reuse and compression ratio of the responses. This helps telling whether slow pages are server
+ * bound or payload bound.
+ * <p>
+ * The bytes and connections are counted at the socket level once {@link #install()} has been called. Note that this
+ * replaces the "http" {@link Protocol} of the JVM, so the connections of all the {@code HttpClient} instances are
+ * counted until {@link #uninstall()} is called, not only the ones of the tests. The requests and the compression ratio
+ * are counted by the callers, see {@link #countRequest()} and {@link #getResponseBody(HttpMethod)}. The compression
+ * ratio is only reported when the callers asked for compressed responses.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public final class HttpStatistics
+{
+    private static final HttpStatistics INSTANCE = new HttpStatistics();
+
+    private static final String HTTP = "http";
+
+    private static Protocol previousProtocol;
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    private final AtomicLong connections = new AtomicLong();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong encodedBytes = new AtomicLong();
+
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    private final AtomicLong compressedResponses = new AtomicLong();
+
+    private HttpStatistics()
+    {
+        // Use getInstance()
+    }
+
+    /**
+     * @return the statistics of the JVM
+     */
+    public static HttpStatistics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Register a socket factory counting the traffic for the "http" scheme of the JVM. Only the connections opened
+     * after this call are counted.
+     */
+    public static synchronized void install()
+    {
+        if (previousProtocol == null) {
+            previousProtocol = Protocol.getProtocol(HTTP);
+            Protocol.registerProtocol(HTTP, new Protocol(HTTP, INSTANCE.new CountingSocketFactory(), 80));
+        }
+    }
+
+    /**
+     * Restore the "http" scheme replaced by {@link #install()}. The connections already opened keep being counted.
+     */
+    public static synchronized void uninstall()
+    {
+        if (previousProtocol != null) {
+            Protocol.registerProtocol(HTTP, previousProtocol);
+            previousProtocol = null;
+        }
+    }
+
+    /**
+     * Count a request sent by the tests.
+     */
+    public void countRequest()
+    {
+        this.requests.incrementAndGet();
+    }
+
+    /**
+     * Read the response body of a method, decompressing it if the server sent it gzip encoded, and count its
+     * compression ratio.
+     *
+     * @param method an executed method
+     * @return the decoded response body
+     * @throws IOException when failing to read the response
+     */
+    public byte[] getResponseBody(HttpMethod method) throws IOException
+    {
+        InputStream stream = method.getResponseBodyAsStream();
+        if (stream == null) {
+            return new byte[0];
+        }
+
+        Header encoding = method.getResponseHeader("Content-Encoding");
+        if (encoding == null || !encoding.getValue().toLowerCase().contains("gzip")) {
+            byte[] body = IOUtils.toByteArray(stream);
+            this.encodedBytes.addAndGet(body.length);
+            this.decodedBytes.addAndGet(body.length);
+            return body;
+        }
+
+        this.compressedResponses.incrementAndGet();
+        CountingInputStream counter = new CountingInputStream(stream);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        IOUtils.copy(new GZIPInputStream(counter), body);
+        this.encodedBytes.addAndGet(counter.getByteCount());
+        this.decodedBytes.addAndGet(body.size());
+
+        return body.toByteArray();
+    }
+
+    /**
+     * @return the number of bytes written on the sockets
+     */
+    public long getBytesSent()
+    {
+        return this.bytesSent.get();
+    }
+
+    /**
+     * @return the number of bytes read from the sockets, headers included
+     */
+    public long getBytesReceived()
+    {
+        return this.bytesReceived.get();
+    }
+
+    /**
+     * @return the number of connections opened
+     */
+    public long getConnections()
+    {
+        return this.connections.get();
+    }
+
+    /**
+     * @return the number of requests counted with {@link #countRequest()}
+     */
+    public long getRequests()
+    {
+        return this.requests.get();
+    }
+
+    /**
+     * @return the ratio of requests which reused an already opened connection
+     */
+    public double getKeepAliveReuseRate()
+    {
+        long requestCount = getRequests();
+        if (requestCount == 0) {
+            return 0;
+        }
+        return Math.max(0, 1 - (double) getConnections() / requestCount);
+    }
+
+    /**
+     * @return the size of the decoded response bodies divided by their size on the wire, 1 when nothing was
+     *         compressed
+     */
+    public double getCompressionRatio()
+    {
+        long encoded = this.encodedBytes.get();
+        return encoded == 0 ? 1 : (double) this.decodedBytes.get() / encoded;
+    }
+
+    /**
+     * Start counting from zero again.
+     */
+    public void reset()
+    {
+        this.bytesSent.set(0);
+        this.bytesReceived.set(0);
+        this.connections.set(0);
+        this.requests.set(0);
+        this.encodedBytes.set(0);
+        this.decodedBytes.set(0);
+        this.compressedResponses.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        String traffic = String.format("%d requests, %d connections opened, %.1f%% keep-alive reuse, %d bytes sent, "
+            + "%d bytes received", getRequests(), getConnections(), getKeepAliveReuseRate() * 100, getBytesSent(),
+            getBytesReceived());
+
+        // The ratio is meaningless when no compressed response was asked for.
+        long compressed = this.compressedResponses.get();
+        return compressed == 0 ? traffic
+            : String.format("%s, %.2f compression ratio (%d compressed responses)", traffic, getCompressionRatio(),
+                compressed);
+    }
+
+    /**
+     * Creates plain sockets which count the connections and the bytes going through them.
+     */
+    private class CountingSocketFactory implements ProtocolSocketFactory
+    {
+        @Override
+        public Socket createSocket(String host, int port) throws IOException
+        {
+            return createSocket(host, port, null, 0, null);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localAddress, int localPort)
+            throws IOException
+        {
+            return createSocket(host, port, localAddress, localPort, null);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localAddress, int localPort,
+            HttpConnectionParams params) throws IOException
+        {
+            Socket socket = new CountingSocket();
+            if (localAddress != null) {
+                socket.bind(new InetSocketAddress(localAddress, localPort));
+            }
+            socket.connect(new InetSocketAddress(host, port), params == null ? 0 : params.getConnectionTimeout());
+
+            connections.incrementAndGet();
+
+            return socket;
+        }
+    }
+
+    /**
+     * Socket counting the bytes read and written.
+     */
+    private class CountingSocket extends Socket
+    {
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            return new ProxyInputStream(super.getInputStream())
+            {
+                @Override
+                protected void afterRead(int n)
+                {
+                    if (n > 0) {
+                        bytesReceived.addAndGet(n);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException
+        {
+            return new ProxyOutputStream(super.getOutputStream())
+            {
+                @Override
+                protected void beforeWrite(int n)
+                {
+                    bytesSent.addAndGet(n);
+                }
+            };
+        }
+    }
+}
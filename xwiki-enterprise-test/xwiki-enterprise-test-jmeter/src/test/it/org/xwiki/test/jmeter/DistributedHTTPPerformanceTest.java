@@ -0,0 +1,63 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.jmeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Same samplers as {@link HTTPPerformanceTest} but the load is generated from several local JVMs started at the same
+ * time, see {@link LoadCoordinator}. Skipped unless the "jmeter.agents" System Property is greater than 0. For example:
+ * {@code mvn install -Djmeter.agents=4 -Djmeter.threads=10 -Djmeter.loops=5}.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class DistributedHTTPPerformanceTest
+{
+    @BeforeClass
+    public static void before() throws IOException
+    {
+        HTTPPerformanceTest.before();
+    }
+
+    @Test
+    public void guest() throws Exception
+    {
+        int agents = Integer.getInteger("jmeter.agents", 0);
+        Assume.assumeTrue(agents > 0);
+
+        LoadCoordinator coordinator = new LoadCoordinator(new File("target/jmeter/distributed"), agents,
+            Integer.getInteger("jmeter.threads", 1), Integer.getInteger("jmeter.loops", 5));
+        coordinator.setAgentJvmOptions(System.getProperty("jmeter.agentJvmOptions"));
+
+        Map<String, LatencyHistogram> histograms = coordinator.run(HTTPPerformanceTest.createGuestSamplers());
+
+        LatencyHistogram total = histograms.get(HistogramCollector.TOTAL);
+        Assert.assertNotNull("No sample recorded", total);
+        Assert.assertTrue("No sample recorded", total.getCount() > 0);
+    }
+}
@@ -34,6 +34,8 @@
 import org.apache.commons.io.IOUtils;
 import org.apache.jmeter.control.LoopController;
 import org.apache.jmeter.engine.StandardJMeterEngine;
+import org.apache.jmeter.protocol.http.control.Header;
+import org.apache.jmeter.protocol.http.control.HeaderManager;
 import org.apache.jmeter.protocol.http.sampler.HTTPSampler;
 import org.apache.jmeter.reporters.ResultCollector;
 import org.apache.jmeter.samplers.SampleSaveConfiguration;
@@ -57,6 +59,9 @@
     private static final DefaultStringEntityReferenceSerializer SERIALIZER =
         new DefaultStringEntityReferenceSerializer();
 
+    /** The System Property telling whether the samplers should use keep-alive and compression. */
+    static final String BROWSER_REQUESTS = "jmeter.browserRequests";
+
     protected static List<DocumentReference> readXarContents(String fileName, String patternFilter) throws Exception
     {
         Collection<XarEntry> entries = XarPackage.getEntries(new File(fileName));
@@ -109,7 +114,7 @@ public static void before() throws IOException
             IOUtils.toByteArray(HTTPPerformanceTest.class.getResource("/jmeterbin/upgrade.properties")));
     }
 
-    private static HTTPSampler createSample(String name, String path)
+    static HTTPSampler createSample(String name, String path)
     {
         HTTPSampler httpSampler = new HTTPSampler();
 
@@ -117,18 +122,48 @@ private static HTTPSampler createSample(String name, String path)
         httpSampler.setPort(Integer.valueOf(XWikiExecutor.DEFAULT_PORT));
         httpSampler.setMethod("GET");
 
+        if (Boolean.getBoolean(BROWSER_REQUESTS)) {
+            // Reuse the connections and ask for compressed responses like browsers do, the size on the wire is saved
+            // in the report. Not the default since it changes the measures compared with the previous runs.
+            httpSampler.setUseKeepAlive(true);
+            HeaderManager headerManager = new HeaderManager();
+            headerManager.add(new Header("Accept-Encoding", "gzip, deflate"));
+            httpSampler.setHeaderManager(headerManager);
+        }
+
         httpSampler.setName(path);
         httpSampler.setPath(path);
 
         return httpSampler;
     }
 
+    static List<HTTPSampler> createGuestSamplers() throws Exception
+    {
+        List<HTTPSampler> samplers = new ArrayList<HTTPSampler>();
+
+        samplers.add(createSample("root", "/xwiki/"));
+        samplers.add(createSample("Main.WebHome (edit)", "/xwiki/bin/edit/Main/WebHome"));
+
+        addXarFiles(samplers);
+
+        return samplers;
+    }
+
     public void execute(List<HTTPSampler> samplers)
     {
         execute(samplers, null, null);
     }
 
     public void execute(List<HTTPSampler> samplers, String user, String password)
+    {
+        // Result collector
+        ResultCollector resultCollector = new ResultCollector();
+        resultCollector.setFilename("target/jmeter/report.jtl");
+
+        execute(samplers, resultCollector, 1, 5);
+    }
+
+    static void execute(List<HTTPSampler> samplers, ResultCollector resultCollector, int threads, int loops)
     {
         // jmeter.properties
         JMeterUtils.loadJMeterProperties("target/jmeter/home/bin/saveservice.properties");
@@ -136,23 +171,22 @@ public void execute(List<HTTPSampler> samplers, String user, String password)
         JMeterUtils.setJMeterHome("target/jmeter/home");
 
         // Result collector
-        ResultCollector resultCollector = new ResultCollector();
-        resultCollector.setFilename("target/jmeter/report.jtl");
         SampleSaveConfiguration saveConfiguration = new SampleSaveConfiguration();
         saveConfiguration.setAsXml(true);
         saveConfiguration.setCode(true);
         saveConfiguration.setLatency(true);
         saveConfiguration.setTime(true);
         saveConfiguration.setTimestamp(true);
+        saveConfiguration.setBytes(true);
         resultCollector.setSaveConfig(saveConfiguration);
 
         // Thread Group
         ThreadGroup threadGroup = new ThreadGroup();
         threadGroup.setName("xwiki");
-        threadGroup.setNumThreads(1);
+        threadGroup.setNumThreads(threads);
         threadGroup.setRampUp(1);
         LoopController loopCtrl = new LoopController();
-        loopCtrl.setLoops(5);
+        loopCtrl.setLoops(loops);
         loopCtrl.setFirst(true);
         threadGroup.setSamplerController(loopCtrl);
 
@@ -182,13 +216,6 @@ public void execute(List<HTTPSampler> samplers, String user, String password)
     @Test
     public void guest() throws FileNotFoundException, Exception
     {
-        List<HTTPSampler> samplers = new ArrayList<HTTPSampler>();
-
-        samplers.add(createSample("root", "/xwiki/"));
-        samplers.add(createSample("Main.WebHome (edit)", "/xwiki/bin/edit/Main/WebHome"));
-
-        addXarFiles(samplers);
-
-        execute(samplers);
+        execute(createGuestSamplers());
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.jmeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * Result collector which, in addition to the standard JTL file, records a {@link LatencyHistogram} for each sampler
+ * label and one for all the samples (see {@link #TOTAL}). Note that, like all {@link ResultCollector}s, it is shared
+ * between the JMeter threads.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class HistogramCollector extends ResultCollector
+{
+    /** The label of the histogram holding all the samples. */
+    public static final String TOTAL = "TOTAL";
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String SEPARATOR = "\t";
+
+    private static final String ERRORS = "errors";
+
+    private final transient Map<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+
+    @Override
+    public void sampleOccurred(SampleEvent event)
+    {
+        SampleResult result = event.getResult();
+        getHistogram(TOTAL).record(result.getTime(), result.isSuccessful());
+        getHistogram(result.getSampleLabel()).record(result.getTime(), result.isSuccessful());
+
+        super.sampleOccurred(event);
+    }
+
+    private synchronized LatencyHistogram getHistogram(String label)
+    {
+        LatencyHistogram histogram = this.histograms.get(label);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            this.histograms.put(label, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the recorded histograms, indexed by sampler label
+     */
+    public synchronized Map<String, LatencyHistogram> getHistograms()
+    {
+        return new TreeMap<String, LatencyHistogram>(this.histograms);
+    }
+
+    /**
+     * Write histograms in a file, one line per label and response time.
+     *
+     * @param histograms the histograms to write, indexed by sampler label
+     * @param file the file to write
+     * @throws IOException when failing to write the file
+     */
+    public static void write(Map<String, LatencyHistogram> histograms, File file) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            lines.add(entry.getKey() + SEPARATOR + ERRORS + SEPARATOR + entry.getValue().getErrors());
+            for (Map.Entry<Long, Long> count : entry.getValue().getCounts().entrySet()) {
+                lines.add(entry.getKey() + SEPARATOR + count.getKey() + SEPARATOR + count.getValue());
+            }
+        }
+        FileUtils.writeLines(file, "UTF-8", lines);
+    }
+
+    /**
+     * Read histograms written with {@link #write(Map, File)}.
+     *
+     * @param file the file to read
+     * @return the histograms, indexed by sampler label
+     * @throws IOException when failing to read the file
+     */
+    public static SortedMap<String, LatencyHistogram> read(File file) throws IOException
+    {
+        SortedMap<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+        for (String line : FileUtils.readLines(file, "UTF-8")) {
+            // The label may contain the separator, the two last columns never do.
+            int valueIndex = line.lastIndexOf(SEPARATOR);
+            int keyIndex = line.lastIndexOf(SEPARATOR, valueIndex - 1);
+            if (keyIndex < 0) {
+                continue;
+            }
+
+            String label = line.substring(0, keyIndex);
+            String key = line.substring(keyIndex + 1, valueIndex);
+            long value = Long.parseLong(line.substring(valueIndex + 1));
+
+            LatencyHistogram histogram = histograms.get(label);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                histograms.put(label, histogram);
+            }
+            if (ERRORS.equals(key)) {
+                histogram.setErrors(histogram.getErrors() + value);
+            } else {
+                histogram.add(Long.parseLong(key), value);
+            }
+        }
+        return histograms;
+    }
+}
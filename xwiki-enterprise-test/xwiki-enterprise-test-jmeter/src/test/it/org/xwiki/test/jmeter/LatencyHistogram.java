@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.jmeter;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Sparse histogram of response times with a one millisecond resolution. Histograms recorded by different load agents
+ * can be merged without losing precision.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class LatencyHistogram
+{
+    /** Number of samples for each response time, in milliseconds. */
+    private final SortedMap<Long, Long> counts = new TreeMap<Long, Long>();
+
+    private long errors;
+
+    /**
+     * Record a sample.
+     *
+     * @param millis the response time of the sample, in milliseconds
+     * @param success false if the sample failed
+     */
+    public synchronized void record(long millis, boolean success)
+    {
+        add(millis, 1);
+        if (!success) {
+            this.errors++;
+        }
+    }
+
+    /**
+     * Add several samples having the same response time.
+     *
+     * @param millis the response time of the samples, in milliseconds
+     * @param count the number of samples
+     */
+    public synchronized void add(long millis, long count)
+    {
+        Long current = this.counts.get(millis);
+        this.counts.put(millis, current == null ? count : current + count);
+    }
+
+    /**
+     * Add the samples of another histogram to this one.
+     *
+     * @param other the histogram to merge
+     */
+    public synchronized void merge(LatencyHistogram other)
+    {
+        for (Map.Entry<Long, Long> entry : other.getCounts().entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+        this.errors += other.getErrors();
+    }
+
+    /**
+     * @return a copy of the number of samples for each response time
+     */
+    public synchronized SortedMap<Long, Long> getCounts()
+    {
+        return new TreeMap<Long, Long>(this.counts);
+    }
+
+    /**
+     * @return the number of failed samples
+     */
+    public synchronized long getErrors()
+    {
+        return this.errors;
+    }
+
+    /**
+     * @param errors the number of failed samples
+     */
+    public synchronized void setErrors(long errors)
+    {
+        this.errors = errors;
+    }
+
+    /**
+     * @return the number of samples
+     */
+    public synchronized long getCount()
+    {
+        long count = 0;
+        for (long value : this.counts.values()) {
+            count += value;
+        }
+        return count;
+    }
+
+    /**
+     * @return the average response time, in milliseconds
+     */
+    public synchronized double getMean()
+    {
+        long count = 0;
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : this.counts.entrySet()) {
+            count += entry.getValue();
+            total += entry.getKey() * entry.getValue();
+        }
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * @return the highest response time, in milliseconds
+     */
+    public synchronized long getMax()
+    {
+        return this.counts.isEmpty() ? 0 : this.counts.lastKey();
+    }
+
+    /**
+     * @param percentile the percentile to compute, between 0 and 100
+     * @return the response time under which the given percentage of the samples are, in milliseconds
+     */
+    public synchronized long getPercentile(double percentile)
+    {
+        long threshold = (long) Math.ceil(getCount() * percentile / 100);
+        long count = 0;
+        for (Map.Entry<Long, Long> entry : this.counts.entrySet()) {
+            count += entry.getValue();
+            if (count >= threshold) {
+                return entry.getKey();
+            }
+        }
+        return getMax();
+    }
+}
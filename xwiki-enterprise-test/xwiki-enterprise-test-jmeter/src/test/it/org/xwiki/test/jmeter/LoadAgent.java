@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.jmeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jmeter.protocol.http.sampler.HTTPSampler;
+
+/**
+ * Load generator forked by {@link LoadCoordinator}. It reads the shared sampler definitions, tells the coordinator it
+ * is ready, waits for the start signal and runs the samplers with JMeter. The recorded histograms are written in a
+ * file for the coordinator to merge them.
+ * <p>
+ * Arguments: {@code <samplers file> <coordinator port> <agent index> <threads> <loops> <output directory>}.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public final class LoadAgent
+{
+    /** Sent by the agent when it is ready to start. */
+    static final int READY = 'R';
+
+    /** Sent by the coordinator when all the agents are ready. */
+    static final int GO = 'G';
+
+    /** Separates the name and the path of a sampler in the sampler definitions file. */
+    static final String SEPARATOR = "\t";
+
+    private LoadAgent()
+    {
+        // Only used through main
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        File samplersFile = new File(args[0]);
+        int port = Integer.parseInt(args[1]);
+        int index = Integer.parseInt(args[2]);
+        int threads = Integer.parseInt(args[3]);
+        int loops = Integer.parseInt(args[4]);
+        File outputDirectory = new File(args[5]);
+
+        List<HTTPSampler> samplers = readSamplers(samplersFile);
+
+        HistogramCollector collector = new HistogramCollector();
+        collector.setFilename(new File(outputDirectory, getName(index) + ".jtl").getPath());
+
+        waitForStart(port);
+
+        HTTPPerformanceTest.execute(samplers, collector, threads, loops);
+
+        HistogramCollector.write(collector.getHistograms(), getHistogramFile(outputDirectory, index));
+
+        // JMeter may leave non daemon threads behind.
+        System.exit(0);
+    }
+
+    static String getName(int index)
+    {
+        return "agent-" + index;
+    }
+
+    static File getHistogramFile(File outputDirectory, int index)
+    {
+        return new File(outputDirectory, getName(index) + ".histogram");
+    }
+
+    private static List<HTTPSampler> readSamplers(File samplersFile) throws IOException
+    {
+        List<HTTPSampler> samplers = new ArrayList<HTTPSampler>();
+        for (String line : FileUtils.readLines(samplersFile, "UTF-8")) {
+            int index = line.indexOf(SEPARATOR);
+            if (index > 0) {
+                samplers.add(HTTPPerformanceTest.createSample(line.substring(0, index), line.substring(index + 1)));
+            }
+        }
+        return samplers;
+    }
+
+    /**
+     * Synchronized start barrier: notify the coordinator and block until it sends the start signal.
+     */
+    private static void waitForStart(int port) throws IOException
+    {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(READY);
+            out.flush();
+
+            if (socket.getInputStream().read() != GO) {
+                throw new IOException("The coordinator did not send the start signal");
+            }
+        } finally {
+            socket.close();
+        }
+    }
+}
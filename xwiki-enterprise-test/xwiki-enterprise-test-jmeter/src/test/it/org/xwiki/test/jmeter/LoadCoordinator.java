@@ -0,0 +1,226 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.jmeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jmeter.protocol.http.sampler.HTTPSampler;
+
+/**
+ * Generate load from several local JVMs so that the load generator itself (its CPU usage and its garbage collection)
+ * does not skew the measures. The coordinator forks {@link LoadAgent}s sharing the same sampler definitions, starts
+ * them all at the same time once they are ready and merges their histograms into one report. Only localhost sockets
+ * are used.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class LoadCoordinator
+{
+    /** Maximum time to wait for all the agents to be ready. */
+    private static final int READY_TIMEOUT = 120000;
+
+    private final File outputDirectory;
+
+    private final int agents;
+
+    private final int threads;
+
+    private final int loops;
+
+    private String agentJvmOptions;
+
+    /**
+     * @param outputDirectory where to write the sampler definitions, the agent results and the merged report
+     * @param agents the number of agent JVMs to fork
+     * @param threads the number of JMeter threads in each agent
+     * @param loops the number of times each thread goes through the samplers
+     */
+    public LoadCoordinator(File outputDirectory, int agents, int threads, int loops)
+    {
+        this.outputDirectory = outputDirectory;
+        this.agents = agents;
+        this.threads = threads;
+        this.loops = loops;
+    }
+
+    /**
+     * @param agentJvmOptions space separated options passed to the agent JVMs (e.g. "-Xmx256m")
+     */
+    public void setAgentJvmOptions(String agentJvmOptions)
+    {
+        this.agentJvmOptions = agentJvmOptions;
+    }
+
+    /**
+     * Run the samplers from all the agents and merge the results.
+     *
+     * @param samplers the samplers to run
+     * @return the merged histograms, indexed by sampler label ({@link HistogramCollector#TOTAL} for all the samples)
+     * @throws Exception when an agent fails
+     */
+    public SortedMap<String, LatencyHistogram> run(List<HTTPSampler> samplers) throws Exception
+    {
+        this.outputDirectory.mkdirs();
+        File samplersFile = writeSamplers(samplers);
+
+        ServerSocket barrier = new ServerSocket(0, this.agents, InetAddress.getLoopbackAddress());
+        List<Process> processes = new ArrayList<Process>();
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < this.agents; i++) {
+                processes.add(fork(samplersFile, barrier.getLocalPort(), i));
+            }
+
+            // Wait for all the agents to be ready...
+            barrier.setSoTimeout(READY_TIMEOUT);
+            while (sockets.size() < this.agents) {
+                Socket socket = barrier.accept();
+                sockets.add(socket);
+                if (socket.getInputStream().read() != LoadAgent.READY) {
+                    throw new IOException("Unexpected message from load agent");
+                }
+            }
+
+            // ...and start them all at once.
+            for (Socket socket : sockets) {
+                socket.getOutputStream().write(LoadAgent.GO);
+                socket.getOutputStream().flush();
+            }
+
+            for (int i = 0; i < processes.size(); i++) {
+                int exitCode = processes.get(i).waitFor();
+                if (exitCode != 0) {
+                    throw new Exception(String.format("Load agent [%d] failed with exit code [%d], see [%s]", i,
+                        exitCode, getLogFile(i)));
+                }
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            barrier.close();
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+
+        return merge();
+    }
+
+    private File writeSamplers(List<HTTPSampler> samplers) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        for (HTTPSampler sampler : samplers) {
+            lines.add(sampler.getName() + LoadAgent.SEPARATOR + sampler.getPath());
+        }
+        File file = new File(this.outputDirectory, "samplers.txt");
+        FileUtils.writeLines(file, "UTF-8", lines);
+        return file;
+    }
+
+    private Process fork(File samplersFile, int port, int index) throws IOException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if (this.agentJvmOptions != null) {
+            for (String option : this.agentJvmOptions.trim().split("\\s+")) {
+                if (!option.isEmpty()) {
+                    command.add(option);
+                }
+            }
+        }
+        // The agents create their own samplers.
+        command.add("-D" + HTTPPerformanceTest.BROWSER_REQUESTS + '=' + Boolean.getBoolean(
+            HTTPPerformanceTest.BROWSER_REQUESTS));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(LoadAgent.class.getName());
+        command.add(samplersFile.getPath());
+        command.add(String.valueOf(port));
+        command.add(String.valueOf(index));
+        command.add(String.valueOf(this.threads));
+        command.add(String.valueOf(this.loops));
+        command.add(this.outputDirectory.getPath());
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(getLogFile(index));
+
+        return builder.start();
+    }
+
+    private File getLogFile(int index)
+    {
+        return new File(this.outputDirectory, LoadAgent.getName(index) + ".log");
+    }
+
+    private SortedMap<String, LatencyHistogram> merge() throws IOException
+    {
+        SortedMap<String, LatencyHistogram> merged = new TreeMap<String, LatencyHistogram>();
+        for (int i = 0; i < this.agents; i++) {
+            for (Map.Entry<String, LatencyHistogram> entry : HistogramCollector.read(
+                LoadAgent.getHistogramFile(this.outputDirectory, i)).entrySet()) {
+                LatencyHistogram histogram = merged.get(entry.getKey());
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    merged.put(entry.getKey(), histogram);
+                }
+                histogram.merge(entry.getValue());
+            }
+        }
+
+        HistogramCollector.write(merged, new File(this.outputDirectory, "merged.histogram"));
+        writeReport(merged);
+
+        return merged;
+    }
+
+    private void writeReport(SortedMap<String, LatencyHistogram> histograms) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        lines.add("label,samples,errors,mean,p50,p90,p99,max");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            lines.add(String.format("\"%s\",%d,%d,%.1f,%d,%d,%d,%d", entry.getKey(), histogram.getCount(),
+                histogram.getErrors(), histogram.getMean(), histogram.getPercentile(50), histogram.getPercentile(90),
+                histogram.getPercentile(99), histogram.getMax()));
+        }
+        FileUtils.writeLines(new File(this.outputDirectory, "report.csv"), "UTF-8", lines);
+
+        LatencyHistogram total = histograms.get(HistogramCollector.TOTAL);
+        if (total != null) {
+            System.out.println(String.format("%d agents x %d threads: %d samples, %d errors, mean %.1f ms, "
+                + "p50 %d ms, p90 %d ms, p99 %d ms, max %d ms", this.agents, this.threads, total.getCount(),
+                total.getErrors(), total.getMean(), total.getPercentile(50), total.getPercentile(90),
+                total.getPercentile(99), total.getMax()));
+        }
+    }
+}
@@ -26,6 +26,7 @@
 import org.xwiki.test.integration.XWikiExecutor;
 import org.xwiki.test.storage.framework.AbstractTest;
 import org.xwiki.test.storage.profiles.ForEachProfileSuite;
+import org.xwiki.test.storage.profiles.Profile;
 
 /**
  * Runs all functional tests found in the classpath.
@@ -39,9 +40,13 @@ public class AllTests implements Initializable
     @Inject
     private XWikiExecutor executor;
 
+    @Inject
+    private Profile profile;
+
     @Override
     public void initialize()
     {
         AbstractTest.setExecutor(executor);
+        AbstractTest.setProfile(profile.getClass());
     }
 }
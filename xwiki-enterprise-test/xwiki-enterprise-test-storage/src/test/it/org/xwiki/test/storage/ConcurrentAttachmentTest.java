@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.BenchmarkReport;
+import org.xwiki.test.storage.framework.GeneratedPartSource;
+import org.xwiki.test.storage.framework.StoreTestUtils;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Stress the storage of the attachments of a single document with several clients uploading, replacing and deleting
+ * their own attachment at the same time, like users sharing a "Files" page do. Every attachment of the document must
+ * be readable at the end, with the content of one of the versions uploaded by its client.
+ * <p>
+ * No update must be lost either: every client must find its attachment with the right content and version at the end
+ * and the document must have one version per operation. Each operation saves the whole document, so a store which
+ * doesn't lock the document between loading and saving it can lose an update done in parallel with another one. The
+ * profiles known to do so can be relaxed to only check that the attachments are readable.
+ * <p>
+ * The following System Properties are supported:
+ * <ul>
+ * <li>concurrentAttachments.clients: number of clients working at the same time, 8 by default</li>
+ * <li>concurrentAttachments.rounds: number of times each client uploads its attachment, 5 by default</li>
+ * <li>concurrentAttachments.relaxedProfiles: comma separated profiles (simple class names) in which lost updates are
+ * tolerated, empty by default</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class ConcurrentAttachmentTest extends AbstractTest
+{
+    private static final String SPACE = "Test";
+
+    /** Small enough for the test to be about the concurrency and not the transfer of the content. */
+    private static final int ATTACHMENT_SIZE = 16 * 1024;
+
+    @Test
+    public void testConcurrentAttachmentUpdates() throws Exception
+    {
+        final String pageName = getTestMethodName();
+        final int clients = Integer.getInteger("concurrentAttachments.clients", 8);
+        final int rounds = Integer.getInteger("concurrentAttachments.rounds", 5);
+
+        // Delete the document if it exists.
+        doPostAsAdmin(SPACE, pageName, null, "delete", "confirm=1", null);
+
+        // Create a document. v1.1
+        doPostAsAdmin(SPACE, pageName, null, "save", null, null);
+
+        // Make sure the clients don't all try to get the secret token at the same time.
+        getSecretToken();
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < clients; i++) {
+                final int client = i;
+                results.add(pool.submit(new Callable<long[]>()
+                {
+                    @Override
+                    public long[] call() throws Exception
+                    {
+                        return runClient(pageName, client, rounds);
+                    }
+                }));
+            }
+
+            // Operations and total / maximum latency.
+            long[] totals = new long[3];
+            for (Future<long[]> result : results) {
+                long[] clientTotals = result.get();
+                totals[0] += clientTotals[0];
+                totals[1] += clientTotals[1];
+                totals[2] = Math.max(totals[2], clientTotals[2]);
+            }
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+
+            BenchmarkReport report = new BenchmarkReport("concurrent-attachments-"
+                + getProfile().getSimpleName(), "clients", "operations", "operationsPerSecond", "avgLatencyMs",
+                "maxLatencyMs");
+            report.addRow(clients, totals[0], totals[0] * 1000 / Math.max(elapsed, 1), totals[1] / totals[0],
+                totals[2]);
+            report.write();
+
+            assertAttachmentsReadable(pageName, rounds);
+            if (!isRelaxedProfile()) {
+                assertNoLostUpdate(pageName, clients, rounds, totals[0]);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Upload the attachment of a client several times, then delete it if the client number is odd.
+     *
+     * @return the number of operations, their total latency and their maximum latency
+     */
+    private long[] runClient(String pageName, int client, int rounds) throws Exception
+    {
+        long[] totals = new long[3];
+        for (int round = 1; round <= rounds; round++) {
+            long start = System.nanoTime();
+            assertSuccess(doUploadAsAdmin(SPACE, pageName, getVersion(client, round)));
+            addLatency(totals, start);
+        }
+        if (client % 2 == 1) {
+            long start = System.nanoTime();
+            assertSuccess(doPostAsAdmin(SPACE, pageName, getFilename(client), "delattachment", null, null));
+            addLatency(totals, start);
+        }
+        return totals;
+    }
+
+    /**
+     * Check that each attachment of the document has the content of one of the versions uploaded by its client.
+     */
+    private void assertAttachmentsReadable(String pageName, int rounds) throws Exception
+    {
+        String output = executeScript("def doc = xwiki.getDocument('" + SPACE + "', '" + pageName + "')\n"
+            + "doc.attachmentList.each { print(it.filename + ' ') }");
+
+        for (String filename : StringUtils.split(output)) {
+            int client = Integer.parseInt(StringUtils.substringBetween(filename, "client", ".bin"));
+            HttpMethod method = StoreTestUtils.doStreamingGet(
+                getURL(SPACE, pageName, filename, "download", "basicauth=1"), TestUtils.ADMIN_CREDENTIALS);
+            try {
+                Assert.assertEquals("Failed to download [" + filename + "]", 200, method.getStatusCode());
+                byte[] content = IOUtils.toByteArray(method.getResponseBodyAsStream());
+                boolean uploaded = false;
+                for (int round = 1; round <= rounds && !uploaded; round++) {
+                    uploaded = Arrays.equals(IOUtils.toByteArray(getVersion(client, round).createInputStream()),
+                        content);
+                }
+                Assert.assertTrue("Corrupted content for [" + filename + "]", uploaded);
+            } finally {
+                method.releaseConnection();
+            }
+        }
+    }
+
+    private void assertNoLostUpdate(String pageName, int clients, int rounds, long operations) throws Exception
+    {
+        // Printed on a single line since the output goes through the wiki syntax parser.
+        String output = executeScript("def doc = xwiki.getDocument('" + SPACE + "', '" + pageName + "')\n"
+            + "print(doc.version)\n"
+            + "doc.attachmentList.sort { it.filename }.each { print(' ' + it.filename + ':' + it.version) }");
+
+        List<String> expected = new ArrayList<String>();
+        // One document version per operation, plus the creation.
+        expected.add((operations + 1) + ".1");
+        // The file names are padded so that they are in the same order as the clients.
+        for (int client = 0; client < clients; client += 2) {
+            expected.add(getFilename(client) + ":1." + rounds);
+        }
+        Assert.assertEquals("Lost update", StringUtils.join(expected, ' '), output);
+
+        for (int client = 0; client < clients; client += 2) {
+            GeneratedPartSource lastVersion = getVersion(client, rounds);
+            HttpMethod method = StoreTestUtils.doStreamingGet(
+                getURL(SPACE, pageName, lastVersion.getFileName(), "download", "basicauth=1"),
+                TestUtils.ADMIN_CREDENTIALS);
+            try {
+                Assert.assertEquals(200, method.getStatusCode());
+                Assert.assertTrue("Wrong content for [" + lastVersion.getFileName() + "]",
+                    IOUtils.contentEquals(lastVersion.createInputStream(), method.getResponseBodyAsStream()));
+            } finally {
+                method.releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * @return true if lost updates are tolerated in the current profile
+     */
+    private boolean isRelaxedProfile()
+    {
+        String profiles = System.getProperty("concurrentAttachments.relaxedProfiles", "");
+        return Arrays.asList(profiles.trim().split("\\s*,\\s*")).contains(getProfile().getSimpleName());
+    }
+
+    private GeneratedPartSource getVersion(int client, int round)
+    {
+        return new GeneratedPartSource(getFilename(client), ATTACHMENT_SIZE, client * 1000L + round);
+    }
+
+    private String getFilename(int client)
+    {
+        return String.format("client%03d.bin", client);
+    }
+
+    private void addLatency(long[] totals, long start)
+    {
+        long latency = (System.nanoTime() - start) / 1000000L;
+        totals[0]++;
+        totals[1] += latency;
+        totals[2] = Math.max(totals[2], latency);
+    }
+
+    private void assertSuccess(HttpMethod method)
+    {
+        Assert.assertTrue("Unexpected status: " + method.getStatusLine(), method.getStatusCode() < 400);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.util.Arrays;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.GeneratedPartSource;
+import org.xwiki.test.storage.framework.StoreTestUtils;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Test attachments sharing the same content, like the logos and documents uploaded again and again on a wiki. Every
+ * copy must stay readable whatever happens to the others (overwrite, delete, rollback, document delete), which is what
+ * a store keeping each unique content once must guarantee. The space used by the copies is printed for each profile.
+ * <p>
+ * None of the attachment stores of XWiki Enterprise deduplicates the contents, so checking that the copies take less
+ * than twice the size of the content is for a feature which is not implemented here. It is only done in the profiles
+ * listed, by simple class name and comma separated, in the "attachmentDeduplication" System Property, which is empty
+ * by default.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class DuplicateAttachmentTest extends AbstractTest
+{
+    private static final String SPACE = "Test";
+
+    private static final String FILENAME = "logo.bin";
+
+    /** Big enough for the copies to stand out in the data directory. */
+    private static final int ATTACHMENT_SIZE = 1024 * 1024;
+
+    /** Number of documents holding a copy of the attachment. */
+    private static final int COPIES = 5;
+
+    private final GeneratedPartSource content = new GeneratedPartSource(FILENAME, ATTACHMENT_SIZE, 42);
+
+    @Before
+    public void setUp() throws Exception
+    {
+        for (int i = 0; i < COPIES; i++) {
+            // Delete the document if it exists.
+            doPostAsAdmin(SPACE, getPageName(i), null, "delete", "confirm=1", null);
+        }
+    }
+
+    @Test
+    public void testDuplicateAttachments() throws Exception
+    {
+        long sizeBefore = getDataDirectorySize();
+
+        // Create the documents and upload the same content to each of them. v1.1, v2.1
+        for (int i = 0; i < COPIES; i++) {
+            doPostAsAdmin(SPACE, getPageName(i), null, "save", null, null);
+            assertSuccess(doUploadAsAdmin(SPACE, getPageName(i), this.content));
+        }
+        // Upload the same content again, as a new version of the first attachment. v3.1
+        assertSuccess(doUploadAsAdmin(SPACE, getPageName(0), this.content));
+
+        long growth = getDataDirectorySize() - sizeBefore;
+        System.out.println(String.format("[%s] %d copies of a %d bytes attachment use %d bytes",
+            getProfile().getSimpleName(), COPIES + 1, ATTACHMENT_SIZE, growth));
+
+        for (int i = 0; i < COPIES; i++) {
+            assertAttachmentContent(getPageName(i));
+        }
+        assertVersionContent(getPageName(0), "1.1");
+        assertVersionContent(getPageName(0), "1.2");
+
+        // Deleting a copy must not affect the others. v4.1
+        assertSuccess(doPostAsAdmin(SPACE, getPageName(0), FILENAME, "delattachment", null, null));
+        assertAttachmentContent(getPageName(1));
+
+        // The deleted copy must come back with a rollback. v5.1
+        assertSuccess(doPostAsAdmin(SPACE, getPageName(0), null, "rollback", "rev=3.1&confirm=1", null));
+        assertAttachmentContent(getPageName(0));
+
+        // Deleting a whole document must not affect the other copies.
+        assertSuccess(doPostAsAdmin(SPACE, getPageName(1), null, "delete", "confirm=1", null));
+        for (int i = 0; i < COPIES; i++) {
+            if (i != 1) {
+                assertAttachmentContent(getPageName(i));
+            }
+        }
+
+        if (isDeduplicatingProfile()) {
+            Assert.assertTrue(String.format("%d copies of a %d bytes attachment use %d bytes", COPIES + 1,
+                ATTACHMENT_SIZE, growth), growth < 2 * ATTACHMENT_SIZE);
+        }
+    }
+
+    /**
+     * @return true if the attachment store of the current profile is expected to keep identical contents once
+     */
+    private boolean isDeduplicatingProfile()
+    {
+        String profiles = System.getProperty("attachmentDeduplication", "");
+        return Arrays.asList(profiles.trim().split("\\s*,\\s*")).contains(getProfile().getSimpleName());
+    }
+
+    private String getPageName(int index)
+    {
+        return getTestMethodName() + index;
+    }
+
+    private void assertSuccess(HttpMethod method)
+    {
+        Assert.assertTrue("Unexpected status: " + method.getStatusLine(), method.getStatusCode() < 400);
+    }
+
+    private void assertAttachmentContent(String pageName) throws Exception
+    {
+        assertContent(pageName, getURL(SPACE, pageName, FILENAME, "download", "basicauth=1"));
+    }
+
+    private void assertVersionContent(String pageName, String version) throws Exception
+    {
+        assertContent(pageName + " " + version, getURL(SPACE, pageName, FILENAME, "downloadrev",
+            "rev=" + version + "&basicauth=1"));
+    }
+
+    private void assertContent(String label, String url) throws Exception
+    {
+        HttpMethod method = StoreTestUtils.doStreamingGet(url, TestUtils.ADMIN_CREDENTIALS);
+        try {
+            Assert.assertEquals(200, method.getStatusCode());
+            Assert.assertTrue("Wrong content for the attachment of [" + label + "]",
+                IOUtils.contentEquals(this.content.createInputStream(), method.getResponseBodyAsStream()));
+        } finally {
+            method.releaseConnection();
+        }
+    }
+}
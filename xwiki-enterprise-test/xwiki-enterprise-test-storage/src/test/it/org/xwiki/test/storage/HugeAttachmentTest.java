@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.GeneratedPartSource;
+import org.xwiki.test.storage.framework.ServerHeapMonitor;
+import org.xwiki.test.storage.framework.StoreTestUtils;
+import org.xwiki.test.storage.profiles.HugeAttachmentStorageProfile;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Upload, version, roll back and delete attachments of several GB and make sure the server heap does not grow with
+ * the size of the attachments, i.e. that the content is streamed and never held whole in memory. Only run in
+ * {@link HugeAttachmentStorageProfile}.
+ * <p>
+ * The sizes of the attachments, in MB, are given by the "hugeAttachments.sizes" System Property (1024,4096 by default)
+ * and the allowed growth of the server heap, in MB, by "hugeAttachments.maxHeapGrowth" (128 by default). The maximum
+ * upload size is raised above the biggest attachment during the test.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class HugeAttachmentTest extends AbstractTest
+{
+    private static final String SPACE = "Test";
+
+    private static final String FILENAME = "hugeAttachment.bin";
+
+    private static final long MB = 1024L * 1024L;
+
+    /** Time between two samples of the server heap, in milliseconds. */
+    private static final long HEAP_SAMPLING_PERIOD = 1000;
+
+    /** Room left for the multipart encoding of the upload requests, above the size of the attachments. */
+    private static final long UPLOAD_OVERHEAD = MB;
+
+    private long[] sizes;
+
+    private Long previousUploadMaxSize;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Assume.assumeTrue(getProfile() == HugeAttachmentStorageProfile.class);
+
+        String[] values = System.getProperty("hugeAttachments.sizes", "1024,4096").split("\\s*,\\s*");
+        this.sizes = new long[values.length];
+        long maxSize = 0;
+        for (int i = 0; i < values.length; i++) {
+            this.sizes[i] = Long.parseLong(values[i].trim()) * MB;
+            maxSize = Math.max(maxSize, this.sizes[i]);
+        }
+
+        // The upload action refuses files bigger than 32 MB by default.
+        this.previousUploadMaxSize = setUploadMaxSize(maxSize + UPLOAD_OVERHEAD);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (this.sizes != null) {
+            setUploadMaxSize(this.previousUploadMaxSize);
+        }
+    }
+
+    @Test
+    public void testHugeAttachmentLifecycle() throws Exception
+    {
+        long maxHeapGrowth = Long.getLong("hugeAttachments.maxHeapGrowth", 128) * MB;
+
+        for (final long length : this.sizes) {
+            final String pageName = "testHugeAttachmentLifecycle" + length / MB;
+            final GeneratedPartSource versionOne = new GeneratedPartSource(FILENAME, length, 1);
+            final GeneratedPartSource versionTwo = new GeneratedPartSource(FILENAME, length, 2);
+
+            // Delete the document if it exists.
+            doPostAsAdmin(SPACE, pageName, null, "delete", "confirm=1", null);
+
+            // Create a document. v1.1
+            doPostAsAdmin(SPACE, pageName, null, "save", null, null);
+
+            long baseHeap = getServerHeapUsage();
+            long maxHeap;
+            ServerHeapMonitor monitor = new ServerHeapMonitor(this, HEAP_SAMPLING_PERIOD);
+            monitor.start();
+            try {
+                // Upload the attachment. v2.1
+                assertSuccess(doUploadAsAdmin(SPACE, pageName, versionOne));
+                assertAttachmentContent(pageName, versionOne);
+
+                // Overwrite it. v3.1
+                assertSuccess(doUploadAsAdmin(SPACE, pageName, versionTwo));
+                assertAttachmentContent(pageName, versionTwo);
+
+                // Do a rollback. v4.1
+                assertSuccess(doPostAsAdmin(SPACE, pageName, null, "rollback", "rev=2.1&confirm=1", null));
+                assertAttachmentContent(pageName, versionOne);
+
+                // Delete it. v5.1
+                assertSuccess(doPostAsAdmin(SPACE, pageName, FILENAME, "delattachment", null, null));
+                HttpMethod ret = doPostAsAdmin(SPACE, pageName, FILENAME, "download", null, null);
+                Assert.assertEquals(404, ret.getStatusCode());
+            } finally {
+                maxHeap = monitor.stop();
+            }
+
+            long heapGrowth = maxHeap - baseHeap;
+            System.out.println(String.format("[%s] %d MB attachment: server heap grew by %d MB", pageName,
+                length / MB, heapGrowth / MB));
+            Assert.assertTrue(String.format("The server heap grew by %d MB for a %d MB attachment", heapGrowth / MB,
+                length / MB), heapGrowth < maxHeapGrowth);
+
+            doPostAsAdmin(SPACE, pageName, null, "delete", "confirm=1", null);
+        }
+    }
+
+    private void assertSuccess(HttpMethod method)
+    {
+        Assert.assertTrue("Unexpected status: " + method.getStatusLine(), method.getStatusCode() < 400);
+    }
+
+    /**
+     * Download the attachment and compare it with the expected content, without holding any of them in memory.
+     */
+    private void assertAttachmentContent(String pageName, GeneratedPartSource expected) throws Exception
+    {
+        HttpMethod method = StoreTestUtils.doStreamingGet(getURL(SPACE, pageName, FILENAME, "download", "basicauth=1"),
+            TestUtils.ADMIN_CREDENTIALS);
+        try {
+            Assert.assertEquals(200, method.getStatusCode());
+            Assert.assertTrue("Wrong content for the attachment of [" + pageName + "]",
+                IOUtils.contentEquals(expected.createInputStream(), method.getResponseBodyAsStream()));
+        } finally {
+            method.releaseConnection();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage;
+
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractTest;
+import org.xwiki.test.storage.framework.GeneratedPartSource;
+import org.xwiki.test.storage.framework.IOStatistics;
+
+/**
+ * Make sure that storage operations don't write much more than what they change, for example that a small edit of a
+ * document doesn't rewrite its attachments. Relies on the I/O accounting of Linux so it's skipped elsewhere. The
+ * measures depend on the environment so the test is skipped unless the "writeAmplification" System Property is true.
+ * The allowed ratio between the bytes written and the bytes changed is given by the "maxWriteAmplification" System
+ * Property (4 by default).
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class WriteAmplificationTest extends AbstractTest
+{
+    private static final String FILENAME = "attachment.bin";
+
+    /** Big enough to stand out from the database log and the other writes of XWiki. */
+    private static final int ATTACHMENT_SIZE = 4 * 1024 * 1024;
+
+    private String spaceName;
+
+    private String pageName;
+
+    private double maxWriteAmplification;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Assume.assumeTrue(Boolean.getBoolean("writeAmplification"));
+        Assume.assumeTrue(getIOStatistics().isProcessAccountingAvailable());
+
+        this.spaceName = this.getClass().getSimpleName();
+        this.pageName = this.getTestMethodName();
+        this.maxWriteAmplification = Double.parseDouble(System.getProperty("maxWriteAmplification", "4"));
+
+        // Delete the document if it exists.
+        doPostAsAdmin(this.spaceName, this.pageName, null, "delete", "confirm=1", null);
+    }
+
+    @Test
+    public void testUploadWritesTheAttachmentOnce() throws Exception
+    {
+        // Create a document.
+        doPostAsAdmin(this.spaceName, this.pageName, null, "save", null, null);
+
+        IOStatistics before = getIOStatistics();
+        doUploadAsAdmin(this.spaceName, this.pageName, new GeneratedPartSource(FILENAME, ATTACHMENT_SIZE, 1));
+        IOStatistics io = getIOStatistics().minus(before);
+
+        assertWrittenAtMost("Uploading a " + ATTACHMENT_SIZE + " bytes attachment", io,
+            (long) (ATTACHMENT_SIZE * this.maxWriteAmplification));
+    }
+
+    @Test
+    public void testSmallEditDoesNotRewriteAttachments() throws Exception
+    {
+        // Create a document with an attachment.
+        doPostAsAdmin(this.spaceName, this.pageName, null, "save", null,
+            new HashMap<String, String>() {{
+                put("content", "a");
+            }});
+        doUploadAsAdmin(this.spaceName, this.pageName, new GeneratedPartSource(FILENAME, ATTACHMENT_SIZE, 1));
+
+        // Change one byte of the content.
+        IOStatistics before = getIOStatistics();
+        doPostAsAdmin(this.spaceName, this.pageName, null, "save", null,
+            new HashMap<String, String>() {{
+                put("content", "b");
+            }});
+        IOStatistics io = getIOStatistics().minus(before);
+
+        assertWrittenAtMost("A 1 byte edit of a document with a " + ATTACHMENT_SIZE + " bytes attachment", io,
+            ATTACHMENT_SIZE / 2);
+    }
+
+    @Test
+    public void testRollbackDoesNotRewriteUnchangedAttachments() throws Exception
+    {
+        // Create a document with an attachment. v1.1, v2.1
+        doPostAsAdmin(this.spaceName, this.pageName, null, "save", null,
+            new HashMap<String, String>() {{
+                put("content", "a");
+            }});
+        doUploadAsAdmin(this.spaceName, this.pageName, new GeneratedPartSource(FILENAME, ATTACHMENT_SIZE, 1));
+
+        // Change the content. v3.1
+        doPostAsAdmin(this.spaceName, this.pageName, null, "save", null,
+            new HashMap<String, String>() {{
+                put("content", "b");
+            }});
+
+        // Roll back the content, the attachment is the same in both versions. v4.1
+        IOStatistics before = getIOStatistics();
+        doPostAsAdmin(this.spaceName, this.pageName, null, "rollback", "rev=2.1&confirm=1", null);
+        IOStatistics io = getIOStatistics().minus(before);
+
+        assertWrittenAtMost("Rolling back the content of a document with an unchanged " + ATTACHMENT_SIZE
+            + " bytes attachment", io, ATTACHMENT_SIZE / 2);
+    }
+
+    private void assertWrittenAtMost(String operation, IOStatistics io, long maxBytes)
+    {
+        System.out.println("[" + getProfile().getSimpleName() + "] " + operation + ": " + io);
+
+        Assert.assertTrue(String.format("%s wrote %d bytes, expected at most %d", operation, io.getWrittenBytes(),
+            maxBytes), io.getWrittenBytes() <= maxBytes);
+        Assert.assertTrue(String.format("%s grew the data directory by %d bytes, expected at most %d", operation,
+            io.getDataDirectoryBytes(), maxBytes), io.getDataDirectoryBytes() <= maxBytes);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractBenchmark;
+import org.xwiki.test.storage.framework.BenchmarkReport;
+
+/**
+ * Measure what the recording of activity events costs to the operations which generate them (document save, comment
+ * and attachment upload) and how the activity feed behaves as the event table grows.
+ * <p>
+ * The write amplification is measured by running the same operations with the Activity Stream plugin enabled and
+ * disabled (removed from the xwiki.plugins list of xwiki.cfg) and comparing the latency, the number of recorded
+ * events and the growth of the database files.
+ * <p>
+ * The following System Properties are supported:
+ * <ul>
+ * <li>benchmark.events.operations: number of times each operation is repeated, 100 by default</li>
+ * <li>benchmark.events.sizes: comma separated numbers of events to reach in the event table when measuring the feed
+ * query latency, 10000,100000,1000000,10000000 by default</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class ActivityStreamBenchmark extends AbstractBenchmark
+{
+    private static final String SPACE = "ActivityStreamBenchmark";
+
+    /** The stream in which the generated events are recorded, so that they can be deleted afterwards. */
+    private static final String STREAM = "BenchmarkStream";
+
+    private static final String PLUGINS = "xwiki.plugins";
+
+    private static final String ACTIVITY_STREAM_PLUGIN =
+        "com.xpn.xwiki.plugin.activitystream.plugin.ActivityStreamPlugin";
+
+    /** Number of events inserted by each request when filling the event table. */
+    private static final int EVENTS_PER_REQUEST = 5000;
+
+    /** Number of times the feed is queried for each size. */
+    private static final int FEED_QUERIES = 10;
+
+    private String originalPlugins;
+
+    private boolean eventsGenerated;
+
+    @Test
+    public void benchmarkEventWriteAmplification() throws Exception
+    {
+        int operations = getSizes("benchmark.events.operations", "100")[0];
+
+        BenchmarkReport report = new BenchmarkReport("activitystream-write-amplification", "operation",
+            "eventRecording", "avgLatencyMs", "eventsPerOperation", "dbBytesPerOperation");
+
+        for (boolean recording : new boolean[] {true, false}) {
+            setEventRecording(recording);
+
+            measure(report, recording, "save", operations, new Operation()
+            {
+                @Override
+                public HttpMethod run(final int index) throws Exception
+                {
+                    return doPostAsAdmin(SPACE, "Page", null, "save", null, new HashMap<String, String>() {{
+                        put("content", "Revision " + index);
+                    }}, false);
+                }
+            });
+
+            measure(report, recording, "comment", operations, new Operation()
+            {
+                @Override
+                public HttpMethod run(final int index) throws Exception
+                {
+                    return doPostAsAdmin(SPACE, "Page", null, "commentadd", null, new HashMap<String, String>() {{
+                        put("XWiki.XWikiComments_author", "XWiki.Admin");
+                        put("XWiki.XWikiComments_comment", "Comment " + index);
+                    }}, false);
+                }
+            });
+
+            measure(report, recording, "upload", operations, new Operation()
+            {
+                @Override
+                public HttpMethod run(final int index) throws Exception
+                {
+                    return doUploadAsAdmin(SPACE, "Page", new HashMap<String, byte[]>() {{
+                        put("attachment.txt", ("Attachment version " + index).getBytes("UTF-8"));
+                    }});
+                }
+            });
+
+            doPostAsAdmin(SPACE, "Page", null, "delete", "confirm=1", null);
+        }
+
+        report.write();
+    }
+
+    @Test
+    public void benchmarkActivityFeed() throws Exception
+    {
+        BenchmarkReport report = new BenchmarkReport("activitystream-feed", "events", "avgGetEventsMs",
+            "avgActivityMacroMs", "maxActivityMacroMs");
+
+        this.eventsGenerated = true;
+        for (int size : getSizes("benchmark.events.sizes", "10000,100000,1000000,10000000")) {
+            long count = countEvents();
+            while (count < size) {
+                int batch = (int) Math.min(EVENTS_PER_REQUEST, size - count);
+                executeScript("(1.." + batch + ").each {\n"
+                    + "  xwiki.activitystream.addActivityEvent('" + STREAM + "', 'update', 'Generated event ' + it)\n"
+                    + "}");
+                count += batch;
+            }
+
+            // Server side query, as done by the activity stream API.
+            long getEventsTime = 0;
+            for (int i = 0; i < FEED_QUERIES; i++) {
+                String output = executeScript("def start = System.nanoTime()\n"
+                    + "xwiki.activitystream.getEvents(false, 30, 0)\n"
+                    + "print((System.nanoTime() - start).intdiv(1000000))");
+                getEventsTime += Long.parseLong(output);
+            }
+
+            // Full rendering of the feed, as displayed to the users.
+            long macroTime = 0;
+            long maxMacroTime = 0;
+            for (int i = 0; i < FEED_QUERIES; i++) {
+                long start = System.nanoTime();
+                HttpMethod ret = doPostAsAdmin(SPACE, "Feed", null, "preview", "xpage=plain",
+                    new HashMap<String, String>() {{
+                        put("content", "{{activity entries=\"30\"/}}");
+                    }});
+                ret.getResponseBody();
+                long time = elapsedMillis(start);
+                Assert.assertEquals(200, ret.getStatusCode());
+                macroTime += time;
+                maxMacroTime = Math.max(maxMacroTime, time);
+            }
+
+            report.addRow(count, getEventsTime / FEED_QUERIES, macroTime / FEED_QUERIES, maxMacroTime);
+        }
+
+        report.write();
+    }
+
+    @After
+    public void cleanUp() throws Exception
+    {
+        if (this.originalPlugins != null) {
+            setPlugins(this.originalPlugins);
+            this.originalPlugins = null;
+        }
+
+        if (this.eventsGenerated) {
+            executeScript("def store = xcontext.context.wiki.hibernateStore\n"
+                + "store.beginTransaction(xcontext.context)\n"
+                + "store.getSession(xcontext.context).createQuery("
+                + "'delete from ActivityEventImpl where stream = :stream').setString('stream', '" + STREAM
+                + "').executeUpdate()\n"
+                + "store.endTransaction(xcontext.context, true)");
+            this.eventsGenerated = false;
+        }
+    }
+
+    /**
+     * Repeat an operation and add a row to the report with the average cost of the operation.
+     */
+    private void measure(BenchmarkReport report, boolean recording, String name, int operations,
+        Operation operation) throws Exception
+    {
+        long eventsBefore = countEvents();
+        long sizeBefore = getDataDirectorySize();
+
+        long time = 0;
+        for (int i = 0; i < operations; i++) {
+            long start = System.nanoTime();
+            HttpMethod ret = operation.run(i);
+            time += elapsedMillis(start);
+            assertRedirectedToDocument("The " + name + " operation failed", ret);
+        }
+
+        long events = countEvents() - eventsBefore;
+        long bytes = getDataDirectorySize() - sizeBefore;
+
+        report.addRow(name, recording, time / operations, (double) events / operations, bytes / operations);
+    }
+
+    /**
+     * @return the number of rows in the activity event table
+     */
+    private long countEvents() throws Exception
+    {
+        return Long.parseLong(
+            executeScript("print(services.query.hql('select count(*) from ActivityEventImpl').execute()[0])"));
+    }
+
+    /**
+     * Enable or disable the Activity Stream plugin, which records the events, and restart XWiki.
+     *
+     * @param enabled true to record activity events
+     */
+    private void setEventRecording(boolean enabled) throws Exception
+    {
+        if (this.originalPlugins == null) {
+            this.originalPlugins = getExecutor().loadXWikiCfg().getProperty(PLUGINS, "");
+        }
+
+        if (enabled) {
+            setPlugins(this.originalPlugins);
+        } else {
+            List<String> plugins = new ArrayList<String>();
+            for (String plugin : this.originalPlugins.split(",")) {
+                if (!plugin.trim().equals(ACTIVITY_STREAM_PLUGIN)) {
+                    plugins.add(plugin.trim());
+                }
+            }
+            setPlugins(StringUtils.join(plugins, ','));
+        }
+    }
+
+    private void setPlugins(String plugins) throws Exception
+    {
+        Properties conf = getExecutor().loadXWikiCfg();
+        if (!plugins.equals(conf.getProperty(PLUGINS, ""))) {
+            conf.setProperty(PLUGINS, plugins);
+            getExecutor().saveXWikiCfg(conf);
+            restartXWiki();
+        }
+    }
+
+    /**
+     * An operation generating activity events.
+     */
+    private interface Operation
+    {
+        /**
+         * @param index the number of times the operation was already run
+         * @return the executed request
+         */
+        HttpMethod run(int index) throws Exception;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.benchmark;
+
+import java.util.Properties;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractBenchmark;
+import org.xwiki.test.storage.framework.BenchmarkReport;
+import org.xwiki.test.storage.framework.GeneratedPartSource;
+
+/**
+ * Measure how attachments behave as their history grows: upload latency, latency of {@code getVersions()}, rollback
+ * time and storage used by each version. The same attachment is uploaded again and again, first with the database
+ * attachment stores and then with the filesystem ones, switched through xwiki.cfg.
+ * <p>
+ * The following System Properties are supported:
+ * <ul>
+ * <li>benchmark.attachmentHistory.depths: comma separated numbers of versions at which to take the measures,
+ * 1000,2500,5000,10000 by default</li>
+ * <li>benchmark.attachmentHistory.size: size of each version of the attachment in bytes, 10240 by default</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class AttachmentHistoryBenchmark extends AbstractBenchmark
+{
+    private static final String SPACE = "AttachmentHistoryBenchmark";
+
+    private static final String FILENAME = "history.bin";
+
+    private static final String ATTACHMENT_HINT = "xwiki.store.attachment.hint";
+
+    private static final String VERSIONING_HINT = "xwiki.store.attachment.versioning.hint";
+
+    /** The configurations to compare, as attachment store hint / attachment versioning store hint. */
+    private static final String[][] STORES = {{"hibernate", "hibernate"}, {"file", "file"}};
+
+    /** Number of times the versions are listed at each depth. */
+    private static final int GET_VERSIONS_QUERIES = 5;
+
+    private Properties originalConfiguration;
+
+    @Test
+    public void benchmarkAttachmentHistory() throws Exception
+    {
+        int[] depths = getSizes("benchmark.attachmentHistory.depths", "1000,2500,5000,10000");
+        long size = getSizes("benchmark.attachmentHistory.size", "10240")[0];
+
+        BenchmarkReport report = new BenchmarkReport("attachment-history", "versioningStore", "versions",
+            "avgUploadMs", "lastUploadMs", "getVersionsMs", "rollbackMs", "bytesPerVersion");
+
+        for (String[] store : STORES) {
+            setStores(store[0], store[1]);
+
+            String pageName = "Page" + store[1];
+            doPostAsAdmin(SPACE, pageName, null, "delete", "confirm=1", null);
+            // v1.1
+            doPostAsAdmin(SPACE, pageName, null, "save", null, null);
+
+            long baseSize = getDataDirectorySize();
+            int versions = 0;
+            for (int depth : depths) {
+                long uploadTime = 0;
+                long lastUploadTime = 0;
+                int uploads = 0;
+                while (versions < depth) {
+                    long start = System.nanoTime();
+                    HttpMethod ret = doUploadAsAdmin(SPACE, pageName, new GeneratedPartSource(FILENAME, size,
+                        versions));
+                    lastUploadTime = elapsedMillis(start);
+                    Assert.assertTrue("Upload failed: " + ret.getStatusLine(), ret.getStatusCode() < 400);
+                    uploadTime += lastUploadTime;
+                    uploads++;
+                    versions++;
+                }
+                long bytesPerVersion = (getDataDirectorySize() - baseSize) / versions;
+
+                long getVersionsTime = 0;
+                for (int i = 0; i < GET_VERSIONS_QUERIES; i++) {
+                    getVersionsTime += Long.parseLong(executeScript("def attachment = xwiki.getDocument('" + SPACE
+                        + '.' + pageName + "').getAttachment('" + FILENAME + "')\n"
+                        + "def start = System.nanoTime()\n"
+                        + "def count = attachment.getVersions().size()\n"
+                        + "print((System.nanoTime() - start).intdiv(1000000))"));
+                }
+
+                // Roll back to the previous version of the document, which holds the previous version of the
+                // attachment. The rollback itself is a new version of the attachment.
+                String currentVersion = executeScript("print(xwiki.getDocument('" + SPACE + '.' + pageName
+                    + "').getVersion())");
+                int major = Integer.parseInt(currentVersion.substring(0, currentVersion.indexOf('.')));
+                long start = System.nanoTime();
+                HttpMethod ret = doPostAsAdmin(SPACE, pageName, null, "rollback",
+                    "rev=" + (major - 1) + ".1&confirm=1", null, false);
+                long rollbackTime = elapsedMillis(start);
+                Assert.assertTrue("Rollback failed: " + ret.getStatusLine(), ret.getStatusCode() < 400);
+                versions++;
+
+                report.addRow(store[1], versions, uploadTime / Math.max(1, uploads), lastUploadTime,
+                    getVersionsTime / GET_VERSIONS_QUERIES, rollbackTime, bytesPerVersion);
+            }
+
+            doPostAsAdmin(SPACE, pageName, null, "delete", "confirm=1", null);
+        }
+
+        report.write();
+    }
+
+    @After
+    public void restoreConfiguration() throws Exception
+    {
+        if (this.originalConfiguration != null) {
+            getExecutor().saveXWikiCfg(this.originalConfiguration);
+            this.originalConfiguration = null;
+            restartXWiki();
+        }
+    }
+
+    /**
+     * Change the attachment stores and restart XWiki.
+     */
+    private void setStores(String attachmentHint, String versioningHint) throws Exception
+    {
+        Properties conf = getExecutor().loadXWikiCfg();
+        if (this.originalConfiguration == null) {
+            this.originalConfiguration = getExecutor().loadXWikiCfg();
+        }
+
+        conf.setProperty(ATTACHMENT_HINT, attachmentHint);
+        conf.setProperty(VERSIONING_HINT, versioningHint);
+        getExecutor().saveXWikiCfg(conf);
+        restartXWiki();
+    }
+}
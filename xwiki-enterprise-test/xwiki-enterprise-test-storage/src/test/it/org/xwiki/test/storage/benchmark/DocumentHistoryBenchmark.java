@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.benchmark;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.lang.RandomStringUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractBenchmark;
+import org.xwiki.test.storage.framework.BenchmarkReport;
+
+/**
+ * Measure how documents behave as their history grows: save latency, history view latency, rollback latency and
+ * archive storage size. Two documents are grown, one where each revision changes a single line of the content (small
+ * diffs) and one where each revision replaces the whole content (large diffs).
+ * <p>
+ * The following System Properties are supported:
+ * <ul>
+ * <li>benchmark.documentHistory.depths: comma separated numbers of revisions at which to take the measures,
+ * 500,1000,2500,5000 by default</li>
+ * <li>benchmark.documentHistory.lines: number of lines of the content, 1000 by default (about 50KB)</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class DocumentHistoryBenchmark extends AbstractBenchmark
+{
+    private static final String SPACE = "DocumentHistoryBenchmark";
+
+    private static final int LINE_LENGTH = 50;
+
+    /** Number of times the history is viewed at each depth. */
+    private static final int HISTORY_VIEWS = 5;
+
+    @Test
+    public void benchmarkSmallDiffs() throws Exception
+    {
+        benchmark("small", false);
+    }
+
+    @Test
+    public void benchmarkLargeDiffs() throws Exception
+    {
+        benchmark("large", true);
+    }
+
+    private void benchmark(String diffs, boolean rewrite) throws Exception
+    {
+        int[] depths = getSizes("benchmark.documentHistory.depths", "500,1000,2500,5000");
+        String[] lines = new String[getSizes("benchmark.documentHistory.lines", "1000")[0]];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = RandomStringUtils.randomAlphanumeric(LINE_LENGTH);
+        }
+
+        BenchmarkReport report = new BenchmarkReport("document-history-" + diffs, "revisions", "avgSaveMs",
+            "lastSaveMs", "historyViewMs", "rollbackPreviousMs", "rollbackMiddleMs", "archiveNodes", "dbBytes",
+            "dbBytesPerRevision");
+
+        String pageName = "Page" + StringUtils.capitalize(diffs);
+        doPostAsAdmin(SPACE, pageName, null, "delete", "confirm=1", null);
+        long baseSize = getDataDirectorySize();
+
+        int revisions = 0;
+        for (int depth : depths) {
+            long saveTime = 0;
+            long lastSaveTime = 0;
+            int saves = 0;
+            while (revisions < depth) {
+                if (rewrite) {
+                    for (int i = 0; i < lines.length; i++) {
+                        lines[i] = RandomStringUtils.randomAlphanumeric(LINE_LENGTH);
+                    }
+                } else {
+                    lines[revisions % lines.length] = "Revision " + revisions;
+                }
+                Map<String, String> parameters = Collections.singletonMap("content", StringUtils.join(lines, '\n'));
+
+                long start = System.nanoTime();
+                HttpMethod ret = doPostAsAdmin(SPACE, pageName, null, "save", null, parameters, false);
+                lastSaveTime = elapsedMillis(start);
+                assertRedirectedToDocument("Save failed", ret);
+                saveTime += lastSaveTime;
+                saves++;
+                revisions++;
+            }
+
+            long historyTime = 0;
+            for (int i = 0; i < HISTORY_VIEWS; i++) {
+                long start = System.nanoTime();
+                HttpMethod ret = doPostAsAdmin(SPACE, pageName, null, "view", "viewer=history", null, false);
+                historyTime += elapsedMillis(start);
+                Assert.assertEquals("History view failed", 200, ret.getStatusCode());
+            }
+
+            // Rollback to the previous revision and to a revision in the middle of the history, which means going
+            // through more of the archive. Each rollback is a new revision.
+            long rollbackPreviousTime = rollback(pageName, revisions - 1);
+            revisions++;
+            long rollbackMiddleTime = rollback(pageName, revisions / 2);
+            revisions++;
+
+            long archiveNodes = Long.parseLong(executeScript("def doc = xwiki.getDocument('" + SPACE + '.' + pageName
+                + "')\n"
+                + "print(services.query.hql('select count(*) from XWikiRCSNodeInfo where id.docId = :id')"
+                + ".bindValue('id', doc.getId()).execute()[0])"));
+            long dbBytes = getDataDirectorySize() - baseSize;
+
+            report.addRow(revisions, saveTime / Math.max(1, saves), lastSaveTime, historyTime / HISTORY_VIEWS,
+                rollbackPreviousTime, rollbackMiddleTime, archiveNodes, dbBytes, dbBytes / revisions);
+        }
+
+        doPostAsAdmin(SPACE, pageName, null, "delete", "confirm=1", null);
+
+        report.write();
+    }
+
+    /**
+     * @param pageName the document to roll back
+     * @param revision the number of the revision to roll back to, as in "revision.1"
+     * @return the latency of the rollback action in milliseconds
+     */
+    private long rollback(String pageName, int revision) throws Exception
+    {
+        long start = System.nanoTime();
+        HttpMethod ret = doPostAsAdmin(SPACE, pageName, null, "rollback", "rev=" + revision + ".1&confirm=1", null,
+            false);
+        long time = elapsedMillis(start);
+        assertRedirectedToDocument("Rollback failed", ret);
+        return time;
+    }
+}
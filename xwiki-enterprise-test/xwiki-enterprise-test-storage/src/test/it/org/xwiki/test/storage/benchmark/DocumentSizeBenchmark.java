@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.benchmark;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractBenchmark;
+import org.xwiki.test.storage.framework.BenchmarkReport;
+
+/**
+ * Measure how saving and loading a document scales with the size of its content and with its number of objects, to
+ * find where the document serialization and the Hibernate mapping degrade superlinearly. The documents are built
+ * server side since big contents don't fit in a form post. Save and load (straight from the store, bypassing the
+ * document cache) are timed server side while view and edit are timed as HTTP requests.
+ * <p>
+ * The following System Properties are supported:
+ * <ul>
+ * <li>benchmark.documentSize.contentSizes: comma separated content sizes in bytes,
+ * 10240,102400,1048576,5242880,20971520 by default</li>
+ * <li>benchmark.documentSize.objectCounts: comma separated numbers of objects, 1,10,100,1000,10000,50000 by
+ * default</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class DocumentSizeBenchmark extends AbstractBenchmark
+{
+    private static final String SPACE = "DocumentSizeBenchmark";
+
+    /** Number of times each document is loaded, viewed and edited. */
+    private static final int REPETITIONS = 3;
+
+    /** Groovy code timing a load of the document straight from the store. */
+    private static final String LOAD_SCRIPT = "def store = xcontext.context.wiki.getStore()\n"
+        + "if (store instanceof com.xpn.xwiki.store.XWikiCacheStoreInterface) {\n"
+        + "  store = store.getStore()\n"
+        + "}\n"
+        + "def start = System.nanoTime()\n"
+        + "store.loadXWikiDoc(new com.xpn.xwiki.doc.XWikiDocument(ref), xcontext.context)\n"
+        + "print((System.nanoTime() - start).intdiv(1000000))";
+
+    @Test
+    public void benchmarkContentSize() throws Exception
+    {
+        BenchmarkReport report = new BenchmarkReport("document-content-size", "contentBytes", "saveMs", "loadMs",
+            "viewMs", "editMs", "dbBytes");
+
+        for (int size : getSizes("benchmark.documentSize.contentSizes", "10240,102400,1048576,5242880,20971520")) {
+            String pageName = "Content" + size;
+            String reference = "services.model.createDocumentReference('', '" + SPACE + "', '" + pageName + "')";
+
+            long sizeBefore = getDataDirectorySize();
+            long saveTime = Long.parseLong(executeScript("def doc = xwiki.getDocument(" + reference + ")\n"
+                + "def content = new StringBuilder()\n"
+                + "while (content.length() < " + size + ") {\n"
+                + "  content.append('Line ').append(content.length()).append(' of a big document. ')\n"
+                + "    .append('It has some **bold** and some //italic// text.\\n')\n"
+                + "}\n"
+                + "content.setLength(" + size + ")\n"
+                + "doc.setContent(content.toString())\n"
+                + "def start = System.nanoTime()\n"
+                + "doc.saveAsAuthor()\n"
+                + "print((System.nanoTime() - start).intdiv(1000000))"));
+            long dbBytes = getDataDirectorySize() - sizeBefore;
+
+            measure(report, size, pageName, reference, saveTime, dbBytes, "editor=wiki");
+        }
+
+        report.write();
+    }
+
+    @Test
+    public void benchmarkObjectCount() throws Exception
+    {
+        BenchmarkReport report = new BenchmarkReport("document-object-count", "objects", "saveMs", "loadMs",
+            "viewMs", "editMs", "dbBytes");
+
+        for (int count : getSizes("benchmark.documentSize.objectCounts", "1,10,100,1000,10000,50000")) {
+            String pageName = "Objects" + count;
+            String reference = "services.model.createDocumentReference('', '" + SPACE + "', '" + pageName + "')";
+
+            long sizeBefore = getDataDirectorySize();
+            long saveTime = Long.parseLong(executeScript("def doc = xwiki.getDocument(" + reference + ")\n"
+                + "(1.." + count + ").each {\n"
+                + "  def object = doc.newObject('XWiki.XWikiComments')\n"
+                + "  object.set('author', 'XWiki.Admin')\n"
+                + "  object.set('comment', 'Comment number ' + it)\n"
+                + "}\n"
+                + "def start = System.nanoTime()\n"
+                + "doc.saveAsAuthor()\n"
+                + "print((System.nanoTime() - start).intdiv(1000000))"));
+            long dbBytes = getDataDirectorySize() - sizeBefore;
+
+            measure(report, count, pageName, reference, saveTime, dbBytes, "editor=object");
+        }
+
+        report.write();
+    }
+
+    /**
+     * Time the load, view and edit of a saved document, add a row to the report and delete the document.
+     */
+    private void measure(BenchmarkReport report, int size, String pageName, String reference, long saveTime,
+        long dbBytes, String editQuery) throws Exception
+    {
+        long loadTime = 0;
+        long viewTime = 0;
+        long editTime = 0;
+        for (int i = 0; i < REPETITIONS; i++) {
+            loadTime += Long.parseLong(executeScript("def ref = " + reference + "\n" + LOAD_SCRIPT));
+            viewTime += time(pageName, "view", null);
+            editTime += time(pageName, "edit", editQuery);
+        }
+
+        report.addRow(size, saveTime, loadTime / REPETITIONS, viewTime / REPETITIONS, editTime / REPETITIONS,
+            dbBytes);
+
+        doPostAsAdmin(SPACE, pageName, null, "delete", "confirm=1", null);
+    }
+
+    private long time(String pageName, String action, String query) throws Exception
+    {
+        long start = System.nanoTime();
+        HttpMethod ret = doPostAsAdmin(SPACE, pageName, null, action, query, null, false);
+        long time = elapsedMillis(start);
+        Assert.assertEquals("Failed to " + action + " [" + pageName + "]", 200, ret.getStatusCode());
+        return time;
+    }
+}
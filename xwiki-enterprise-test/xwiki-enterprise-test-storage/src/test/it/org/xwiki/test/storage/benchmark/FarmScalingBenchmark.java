@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractBenchmark;
+import org.xwiki.test.storage.framework.BenchmarkReport;
+import org.xwiki.test.storage.framework.StoreTestUtils;
+
+/**
+ * Measure how a farm behaves as the number of subwikis grows: wiki creation time, memory overhead of each wiki,
+ * latency of requests spread over all the wikis and startup time.
+ * <p>
+ * The following System Properties are supported:
+ * <ul>
+ * <li>benchmark.farm.sizes: comma separated numbers of subwikis to reach, 10,50,100,250,500 by default</li>
+ * <li>benchmark.farm.template: the identifier of an existing template wiki to provision the subwikis from. When not
+ * set a template wiki is created by copying the Main, Sandbox and XWiki spaces of the main wiki.</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class FarmScalingBenchmark extends AbstractBenchmark
+{
+    private static final String WIKI_PREFIX = "farmbench";
+
+    private static final String TEMPLATE_WIKI = WIKI_PREFIX + "template";
+
+    /** Number of requests sent to each wiki when measuring the cross-wiki latency. */
+    private static final int REQUESTS_PER_WIKI = 3;
+
+    private final List<String> createdWikis = new ArrayList<String>();
+
+    private String templateId;
+
+    @Test
+    public void benchmarkFarmScaling() throws Exception
+    {
+        this.templateId = System.getProperty("benchmark.farm.template");
+        if (this.templateId == null) {
+            this.templateId = createTemplateWiki();
+        }
+
+        BenchmarkReport report = new BenchmarkReport("farm-scaling", "wikis", "avgCreationMs", "heapBytes",
+            "heapBytesPerWiki", "avgCrossWikiLatencyMs", "maxCrossWikiLatencyMs", "startupMs", "firstHitAllWikisMs");
+
+        // The wikis are lazily initialized so make sure the main wiki is fully loaded before taking the reference.
+        touchWiki("xwiki");
+        long baseHeap = getServerHeapUsage();
+
+        for (int size : getSizes("benchmark.farm.sizes", "10,50,100,250,500")) {
+            long creationTime = 0;
+            int created = 0;
+            while (this.createdWikis.size() < size) {
+                String wikiId = WIKI_PREFIX + this.createdWikis.size();
+                long start = System.nanoTime();
+                createWiki(wikiId);
+                creationTime += elapsedMillis(start);
+                created++;
+            }
+
+            // Cross-wiki latency: go through all the wikis in turn, like users of different teams would.
+            long totalLatency = 0;
+            long maxLatency = 0;
+            for (int i = 0; i < REQUESTS_PER_WIKI; i++) {
+                for (String wikiId : this.createdWikis) {
+                    long latency = touchWiki(wikiId);
+                    totalLatency += latency;
+                    maxLatency = Math.max(maxLatency, latency);
+                }
+            }
+            long heap = getServerHeapUsage();
+
+            // Startup time: restart and hit every wiki once, which initializes them.
+            long startupTime = restartXWiki();
+            long start = System.nanoTime();
+            for (String wikiId : this.createdWikis) {
+                touchWiki(wikiId);
+            }
+            long firstHitTime = elapsedMillis(start);
+
+            report.addRow(size, created == 0 ? 0 : creationTime / created, heap,
+                (heap - baseHeap) / this.createdWikis.size(), totalLatency / (REQUESTS_PER_WIKI * size), maxLatency,
+                startupTime, firstHitTime);
+        }
+
+        report.write();
+    }
+
+    @After
+    public void deleteWikis() throws Exception
+    {
+        if (this.createdWikis.isEmpty()) {
+            return;
+        }
+
+        StringBuilder script = new StringBuilder();
+        for (String wikiId : this.createdWikis) {
+            script.append("services.wiki.deleteWiki('").append(wikiId).append("')\n");
+        }
+        if (TEMPLATE_WIKI.equals(this.templateId)) {
+            script.append("services.wiki.deleteWiki('").append(TEMPLATE_WIKI).append("')\n");
+        }
+        executeScript(script.toString());
+    }
+
+    /**
+     * Create a template wiki holding a copy of the main wiki content.
+     *
+     * @return the identifier of the template wiki
+     */
+    private String createTemplateWiki() throws Exception
+    {
+        String output = executeScript("if (!services.wiki.exists('" + TEMPLATE_WIKI + "')) {\n"
+            + "  services.wiki.createWiki('" + TEMPLATE_WIKI + "', '" + TEMPLATE_WIKI + "', 'XWiki.Admin', true)\n"
+            + "  ['Main', 'Sandbox', 'XWiki'].each {\n"
+            + "    xwiki.copySpaceBetweenWikis(it, 'xwiki', '" + TEMPLATE_WIKI + "', null)\n"
+            + "  }\n"
+            + "  services.wiki.template.setTemplate('" + TEMPLATE_WIKI + "', true)\n"
+            + "}\n"
+            + "print(services.wiki.template.isTemplate('" + TEMPLATE_WIKI + "'))");
+        Assert.assertEquals("Failed to create the template wiki", "true", output);
+
+        return TEMPLATE_WIKI;
+    }
+
+    /**
+     * Provision a new wiki from the template and wait for the provisioning job to finish.
+     *
+     * @param wikiId the identifier of the wiki to create
+     */
+    private void createWiki(String wikiId) throws Exception
+    {
+        String output = executeScript("def manager = services.component.getInstance("
+            + "org.xwiki.wiki.template.WikiTemplateManager)\n"
+            + "def job = manager.createWikiFromTemplate('" + wikiId + "', '" + wikiId + "', '" + this.templateId
+            + "', 'XWiki.Admin', true)\n"
+            + "job.join()\n"
+            + "print(services.wiki.exists('" + wikiId + "'))");
+        Assert.assertEquals("Failed to create wiki [" + wikiId + "]", "true", output);
+
+        this.createdWikis.add(wikiId);
+    }
+
+    /**
+     * Load the home page of a wiki.
+     *
+     * @param wikiId the identifier of the wiki
+     * @return the latency of the request in milliseconds
+     */
+    private long touchWiki(String wikiId) throws Exception
+    {
+        long start = System.nanoTime();
+        HttpMethod method = StoreTestUtils.doPost(getWikiAddressPrefix(wikiId) + "view/Main/WebHome", null, null);
+        method.getResponseBody();
+        long latency = elapsedMillis(start);
+        Assert.assertEquals("Failed to load the home page of wiki [" + wikiId + "]", 200, method.getStatusCode());
+        return latency;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.benchmark;
+
+import java.util.Properties;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractBenchmark;
+import org.xwiki.test.storage.framework.BenchmarkReport;
+
+/**
+ * Measure how the recycle bins behave as they grow, since they are usually never emptied: listing of the deleted
+ * documents and attachments (the livetable results displayed by {@code Main.AllDocs?view=deletedDocs} and
+ * {@code Main.AllDocs?view=deletedAttachments}, which query the recycle bins), restore and purge of a single entry and
+ * emptying of the whole recycle bins. The same measures are taken with the deleted content stored in the database and
+ * then on the filesystem, switched through xwiki.cfg.
+ * <p>
+ * The following System Properties are supported:
+ * <ul>
+ * <li>benchmark.recycleBin.sizes: comma separated numbers of entries to reach in each recycle bin,
+ * 1000,10000,100000 by default</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class RecycleBinBenchmark extends AbstractBenchmark
+{
+    private static final String SPACE = "RecycleBinBenchmark";
+
+    /** The recycle bin hints to set, for the deleted documents and the deleted attachments. */
+    private static final String[] HINTS = {"xwiki.store.recyclebin.content.hint",
+        "xwiki.store.attachment.recyclebin.hint", "xwiki.store.attachment.recyclebin.content.hint"};
+
+    /** The recycle bin stores to compare. */
+    private static final String[] STORES = {"hibernate", "file"};
+
+    /** Number of entries added or removed by each request. */
+    private static final int ENTRIES_PER_REQUEST = 1000;
+
+    /**
+     * Number of attachments deleted from the same document. Each one adds revisions to the document so they are spread
+     * over many documents, like on a real wiki.
+     */
+    private static final int ATTACHMENTS_PER_DOCUMENT = 100;
+
+    /** The first page of a livetable, as requested when the recycle bin tabs of Main.AllDocs are displayed. */
+    private static final String LIVETABLE_QUERY = "outputSyntax=plain&offset=1&limit=15&reqNo=1&sort=ddate&dir=desc";
+
+    /** Number of times each listing is loaded for each size. */
+    private static final int LIST_QUERIES = 3;
+
+    private static final String DELETED_DOCUMENTS_QUERY =
+        "from XWikiDeletedDocument where fullName like '" + SPACE + ".%'";
+
+    private static final String DELETED_ATTACHMENTS_QUERY =
+        "from DeletedAttachment where docName like '" + SPACE + ".%'";
+
+    private Properties originalConfiguration;
+
+    @Test
+    public void benchmarkRecycleBin() throws Exception
+    {
+        BenchmarkReport report = new BenchmarkReport("recyclebin", "store", "entries", "deletedDocsListMs",
+            "deletedAttachmentsListMs", "restoreDocumentMs", "purgeDocumentMs", "purgeAttachmentMs");
+        BenchmarkReport emptyReport = new BenchmarkReport("recyclebin-empty", "store", "entries",
+            "emptyDocumentsMs", "emptyAttachmentsMs");
+
+        for (String store : STORES) {
+            setStore(store);
+
+            int documents = 0;
+            int attachments = 0;
+            for (int size : getSizes("benchmark.recycleBin.sizes", "1000,10000,100000")) {
+                while (documents < size) {
+                    int batch = Math.min(ENTRIES_PER_REQUEST, size - documents);
+                    deleteDocuments(documents, batch);
+                    documents += batch;
+                }
+                while (attachments < size) {
+                    int batch = Math.min(ENTRIES_PER_REQUEST, size - attachments);
+                    deleteAttachments(attachments, batch);
+                    attachments += batch;
+                }
+
+                long deletedDocsTime = loadLivetable("DeletedDocumentsJSON");
+                long deletedAttachmentsTime = loadLivetable("DeletedAttachmentsJSON");
+
+                // Restore the last deleted document and delete it again so that the number of entries stays the
+                // same.
+                long restoreTime = Long.parseLong(executeScript("def fullName = '" + SPACE + ".Doc"
+                    + (documents - 1) + "'\n"
+                    + "def deleted = xwiki.getDeletedDocuments(fullName, '')[0]\n"
+                    + "def start = System.nanoTime()\n"
+                    + "deleted.restore()\n"
+                    + "def time = (System.nanoTime() - start).intdiv(1000000)\n"
+                    + "xwiki.getDocument(fullName).delete()\n"
+                    + "print(time)"));
+
+                // Purge the last entries and add them back.
+                long purgeDocumentTime = Long.parseLong(executeScript("def fullName = '" + SPACE + ".Doc"
+                    + (documents - 1) + "'\n"
+                    + "def deleted = xwiki.getDeletedDocuments(fullName, '')[0]\n"
+                    + "def start = System.nanoTime()\n"
+                    + "deleted.delete()\n"
+                    + "print((System.nanoTime() - start).intdiv(1000000))"));
+                deleteDocuments(documents - 1, 1);
+                long purgeAttachmentTime = Long.parseLong(executeScript("def deleted = xwiki.getDeletedAttachments('"
+                    + getAttachmentDocument(attachments - 1) + "', '" + getAttachmentName(attachments - 1)
+                    + "')[0]\n"
+                    + "def start = System.nanoTime()\n"
+                    + "deleted.delete()\n"
+                    + "print((System.nanoTime() - start).intdiv(1000000))"));
+                deleteAttachments(attachments - 1, 1);
+
+                Assert.assertEquals(documents, count(DELETED_DOCUMENTS_QUERY));
+                Assert.assertEquals(attachments, count(DELETED_ATTACHMENTS_QUERY));
+
+                report.addRow(store, size, deletedDocsTime, deletedAttachmentsTime, restoreTime, purgeDocumentTime,
+                    purgeAttachmentTime);
+            }
+
+            long emptyDocumentsTime = empty("xwiki.getDeletedDocument(it[1], '', it[0] as String)",
+                "select id, fullName " + DELETED_DOCUMENTS_QUERY);
+            long emptyAttachmentsTime = empty("xwiki.getDeletedAttachment(it as String)",
+                "select id " + DELETED_ATTACHMENTS_QUERY);
+            emptyReport.addRow(store, documents, emptyDocumentsTime, emptyAttachmentsTime);
+
+            // Remove the documents holding the deleted attachments, without filling the recycle bin again.
+            executeScript("services.query.xwql(\"where doc.space = '" + SPACE + "'\").execute().each {\n"
+                + "  xcontext.context.wiki.deleteDocument(xwiki.getDocument(it).document, false, xcontext.context)\n"
+                + "}");
+        }
+
+        report.write();
+        emptyReport.write();
+    }
+
+    @After
+    public void restoreConfiguration() throws Exception
+    {
+        if (this.originalConfiguration != null) {
+            getExecutor().saveXWikiCfg(this.originalConfiguration);
+            this.originalConfiguration = null;
+            restartXWiki();
+        }
+    }
+
+    /**
+     * Create documents and delete them, to the recycle bin.
+     */
+    private void deleteDocuments(int first, int count) throws Exception
+    {
+        executeScript("(" + first + "..<" + (first + count) + ").each {\n"
+            + "  def doc = xwiki.getDocument('" + SPACE + ".Doc' + it)\n"
+            + "  doc.setContent('Deleted document ' + it)\n"
+            + "  doc.save()\n"
+            + "  doc.delete()\n"
+            + "}");
+    }
+
+    /**
+     * Add attachments to documents and delete them, to the attachment recycle bin.
+     */
+    private void deleteAttachments(int first, int count) throws Exception
+    {
+        executeScript("def context = xcontext.context\n"
+            + "(" + first + "..<" + (first + count) + ").each {\n"
+            + "  def doc = xwiki.getDocument('" + SPACE + ".Attachments' + it.intdiv(" + ATTACHMENTS_PER_DOCUMENT
+            + ")).document\n"
+            + "  def attachment = doc.addAttachment('file' + it + '.txt', ('Deleted attachment ' + it)"
+            + ".getBytes('UTF-8'), context)\n"
+            + "  doc.saveAttachmentContent(attachment, context)\n"
+            + "  doc.deleteAttachment(attachment, true, context)\n"
+            + "}");
+    }
+
+    private String getAttachmentDocument(int index)
+    {
+        return SPACE + ".Attachments" + (index / ATTACHMENTS_PER_DOCUMENT);
+    }
+
+    private String getAttachmentName(int index)
+    {
+        return "file" + index + ".txt";
+    }
+
+    /**
+     * Load the first page of the results of a recycle bin livetable. The Main.AllDocs views only hold the livetable,
+     * which gets its results with a separate request.
+     *
+     * @param page the page of the XWiki space returning the livetable results
+     * @return the average latency in milliseconds
+     */
+    private long loadLivetable(String page) throws Exception
+    {
+        long time = 0;
+        for (int i = 0; i < LIST_QUERIES; i++) {
+            long start = System.nanoTime();
+            HttpMethod ret = doPostAsAdmin("XWiki", page, null, "get", LIVETABLE_QUERY, null);
+            time += elapsedMillis(start);
+            Assert.assertEquals("Failed to get the results of " + page, 200, ret.getStatusCode());
+            Assert.assertTrue("Not livetable results: " + page,
+                new String(ret.getResponseBody(), "UTF-8").contains("\"totalrows\""));
+        }
+        return time / LIST_QUERIES;
+    }
+
+    /**
+     * Permanently delete entries of a recycle bin.
+     *
+     * @param getEntry the Groovy expression returning the entry for an item of the query results
+     * @param query the HQL query returning the entries to delete
+     * @return the time it took in milliseconds
+     */
+    private long empty(String getEntry, String query) throws Exception
+    {
+        long time = 0;
+        while (true) {
+            String output = executeScript("def entries = services.query.hql(\"" + query + "\").setLimit("
+                + ENTRIES_PER_REQUEST + ").execute()\n"
+                + "def start = System.nanoTime()\n"
+                + "entries.each { " + getEntry + ".delete() }\n"
+                + "print(entries.size() + ' ' + (System.nanoTime() - start).intdiv(1000000))");
+            String[] values = output.split(" ");
+            time += Long.parseLong(values[1]);
+            if (Integer.parseInt(values[0]) < ENTRIES_PER_REQUEST) {
+                return time;
+            }
+        }
+    }
+
+    private long count(String query) throws Exception
+    {
+        return Long.parseLong(executeScript("print(services.query.hql(\"select count(*) " + query
+            + "\").execute()[0])"));
+    }
+
+    /**
+     * Change the recycle bin stores and restart XWiki.
+     */
+    private void setStore(String hint) throws Exception
+    {
+        Properties conf = getExecutor().loadXWikiCfg();
+        if (this.originalConfiguration == null) {
+            this.originalConfiguration = getExecutor().loadXWikiCfg();
+        }
+
+        for (String property : HINTS) {
+            conf.setProperty(property, hint);
+        }
+        getExecutor().saveXWikiCfg(conf);
+        restartXWiki();
+    }
+}
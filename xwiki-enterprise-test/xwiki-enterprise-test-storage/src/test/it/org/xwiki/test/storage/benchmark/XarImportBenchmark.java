@@ -0,0 +1,254 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.multipart.FilePartSource;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.test.storage.framework.AbstractBenchmark;
+import org.xwiki.test.storage.framework.BenchmarkReport;
+import org.xwiki.test.storage.framework.GeneratedPartSource;
+import org.xwiki.test.storage.framework.ServerHeapMonitor;
+import org.xwiki.test.storage.framework.StoreTestUtils;
+import org.xwiki.test.ui.TestUtils;
+
+/**
+ * Measure the throughput of the import action for big XARs, under each history strategy. A template document with
+ * some history and an attachment is exported with its history and copied as many times as needed in a generated
+ * XAR, which is then uploaded and imported. Reports the imported documents per second, the peak server heap and the
+ * growth of the data directory. The maximum upload size is raised above the size of the XARs during the benchmark.
+ * <p>
+ * The following System Properties are supported:
+ * <ul>
+ * <li>benchmark.xarImport.sizes: comma separated numbers of documents in the imported XARs, 1000,10000,100000 by
+ * default</li>
+ * <li>benchmark.xarImport.revisions: number of revisions of each document, 5 by default</li>
+ * <li>benchmark.xarImport.attachmentSize: size of the attachment of each document in bytes, 10240 by default</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class XarImportBenchmark extends AbstractBenchmark
+{
+    private static final String TEMPLATE_SPACE = "XarImportBenchmarkTemplate";
+
+    private static final String TEMPLATE_PAGE = "TemplateDocument";
+
+    private static final String[] HISTORY_STRATEGIES = {"add", "replace", "reset"};
+
+    private static final String PACKAGE_XML = "package.xml";
+
+    /** Time between two samples of the server heap, in milliseconds. */
+    private static final long HEAP_SAMPLING_PERIOD = 2000;
+
+    /** Room left for the multipart encoding of the upload request, above the size of the XAR. */
+    private static final long UPLOAD_OVERHEAD = 1024L * 1024L;
+
+    private final List<String> importedSpaces = new ArrayList<String>();
+
+    private File xarFile;
+
+    private boolean uploadMaxSizeChanged;
+
+    private Long previousUploadMaxSize;
+
+    @Test
+    public void benchmarkXarImport() throws Exception
+    {
+        String template = createTemplate();
+
+        BenchmarkReport report = new BenchmarkReport("xar-import", "historyStrategy", "documents", "xarBytes",
+            "importMs", "docsPerSecond", "peakHeapBytes", "dataBytes");
+
+        for (int size : getSizes("benchmark.xarImport.sizes", "1000,10000,100000")) {
+            for (final String historyStrategy : HISTORY_STRATEGIES) {
+                String space = "XarImport" + historyStrategy + size;
+                this.xarFile = generateXar(template, space, size);
+
+                // The upload action refuses files bigger than 32 MB by default.
+                Long previous = setUploadMaxSize(this.xarFile.length() + UPLOAD_OVERHEAD);
+                if (!this.uploadMaxSizeChanged) {
+                    this.previousUploadMaxSize = previous;
+                    this.uploadMaxSizeChanged = true;
+                }
+
+                final String xarName = space + ".xar";
+                HttpMethod ret = doUploadAsAdmin("XWiki", "XWikiPreferences", new FilePartSource(xarName,
+                    this.xarFile));
+                Assert.assertTrue("Upload failed: " + ret.getStatusLine(), ret.getStatusCode() < 400);
+                this.importedSpaces.add(space);
+
+                long sizeBefore = getDataDirectorySize();
+                ServerHeapMonitor monitor = new ServerHeapMonitor(this, HEAP_SAMPLING_PERIOD);
+                monitor.start();
+                long importTime;
+                long peakHeap;
+                try {
+                    long start = System.nanoTime();
+                    ret = doPostAsAdmin("XWiki", "XWikiPreferences", null, "import", null,
+                        new HashMap<String, String>() {{
+                            put("action", "import");
+                            put("name", xarName);
+                            put("historyStrategy", historyStrategy);
+                            put("all", "1");
+                        }});
+                    importTime = elapsedMillis(start);
+                    Assert.assertTrue("Import failed: " + ret.getStatusLine(), ret.getStatusCode() < 400);
+                } finally {
+                    peakHeap = monitor.stop();
+                }
+                long dataBytes = getDataDirectorySize() - sizeBefore;
+
+                Assert.assertEquals("Not all the documents were imported", String.valueOf(size),
+                    executeScript("print(services.query.xwql('where doc.space = :space').bindValue('space', '"
+                        + space + "').addFilter('count').execute()[0])"));
+
+                report.addRow(historyStrategy, size, this.xarFile.length(), importTime,
+                    size * 1000L / Math.max(1, importTime), peakHeap, dataBytes);
+
+                doPostAsAdmin("XWiki", "XWikiPreferences", xarName, "delattachment", null, null);
+                FileUtils.deleteQuietly(this.xarFile);
+            }
+        }
+
+        report.write();
+    }
+
+    @After
+    public void cleanUp() throws Exception
+    {
+        FileUtils.deleteQuietly(this.xarFile);
+
+        if (this.uploadMaxSizeChanged) {
+            setUploadMaxSize(this.previousUploadMaxSize);
+            this.uploadMaxSizeChanged = false;
+        }
+
+        // Delete the imported documents without sending them to the recycle bin.
+        this.importedSpaces.add(TEMPLATE_SPACE);
+        for (String space : this.importedSpaces) {
+            executeScript("def xwiki = xcontext.context.wiki\n"
+                + "services.query.xwql('where doc.space = :space').bindValue('space', '" + space + "').execute()"
+                + ".each {\n"
+                + "  xwiki.deleteDocument(xwiki.getDocument(services.model.resolveDocument(it), xcontext.context),"
+                + " false, xcontext.context)\n"
+                + "}");
+        }
+        this.importedSpaces.clear();
+    }
+
+    /**
+     * Create a document with some history and an attachment and export it with its history.
+     *
+     * @return the XML of the exported document
+     */
+    private String createTemplate() throws Exception
+    {
+        int revisions = getSizes("benchmark.xarImport.revisions", "5")[0];
+        int attachmentSize = getSizes("benchmark.xarImport.attachmentSize", "10240")[0];
+
+        doPostAsAdmin(TEMPLATE_SPACE, TEMPLATE_PAGE, null, "delete", "confirm=1", null);
+        for (int i = 1; i < revisions; i++) {
+            final String content = "Revision " + i + " of a document imported by the benchmark.";
+            doPostAsAdmin(TEMPLATE_SPACE, TEMPLATE_PAGE, null, "save", null, new HashMap<String, String>() {{
+                put("content", content);
+            }});
+        }
+        doUploadAsAdmin(TEMPLATE_SPACE, TEMPLATE_PAGE, new GeneratedPartSource("attachment.bin", attachmentSize, 1));
+
+        String reference = TEMPLATE_SPACE + '.' + TEMPLATE_PAGE;
+        HttpMethod method = StoreTestUtils.doStreamingGet(getURL(TEMPLATE_SPACE, TEMPLATE_PAGE, null, "export",
+            "basicauth=1&format=xar&name=template&history=true&backup=true&pages=" + reference),
+            TestUtils.ADMIN_CREDENTIALS);
+        try {
+            Assert.assertEquals("Export failed", 200, method.getStatusCode());
+            ZipInputStream zip = new ZipInputStream(method.getResponseBodyAsStream());
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                if (!entry.getName().equals(PACKAGE_XML)) {
+                    return IOUtils.toString(zip, "UTF-8");
+                }
+            }
+        } finally {
+            method.releaseConnection();
+        }
+
+        throw new AssertionError("The exported XAR has no document");
+    }
+
+    /**
+     * Generate a XAR holding copies of the template document.
+     *
+     * @param template the XML of the template document
+     * @param space the space of the generated documents
+     * @param size the number of documents to generate
+     * @return the generated XAR file
+     */
+    private File generateXar(String template, String space, int size) throws IOException
+    {
+        File file = File.createTempFile(space, ".xar");
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(file));
+        ZipOutputStream zip = new ZipOutputStream(stream);
+        try {
+            zip.putNextEntry(new ZipEntry(PACKAGE_XML));
+            StringBuilder packageXml = new StringBuilder();
+            packageXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<package>\n  <infos>\n");
+            packageXml.append("    <name>").append(space).append("</name>\n");
+            packageXml.append("    <description/>\n    <licence/>\n    <author>XWiki.Admin</author>\n");
+            packageXml.append("    <version/>\n    <backupPack>true</backupPack>\n");
+            packageXml.append("    <preserveVersion>true</preserveVersion>\n  </infos>\n  <files>\n");
+            for (int i = 0; i < size; i++) {
+                packageXml.append("    <file defaultAction=\"0\" language=\"\">").append(space).append(".Doc")
+                    .append(i).append("</file>\n");
+            }
+            packageXml.append("  </files>\n</package>\n");
+            IOUtils.write(packageXml, zip, "UTF-8");
+            zip.closeEntry();
+
+            // The names appear in the document and in the snapshots of its archive.
+            String spaceTemplate = template.replace(TEMPLATE_SPACE, space);
+            for (int i = 0; i < size; i++) {
+                zip.putNextEntry(new ZipEntry(space + "/Doc" + i + ".xml"));
+                IOUtils.write(spaceTemplate.replace(TEMPLATE_PAGE, "Doc" + i), zip, "UTF-8");
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.framework;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.xwiki.test.storage.profiles.DefaultProfile;
+
+/**
+ * To be extended by benchmarks. Benchmarks are long running tests measuring how XWiki behaves as the amount of data
+ * grows, so they are skipped unless the "benchmark" System Property is set to true. For example:
+ * {@code mvn install -Dbenchmark=true -Dpattern=FarmScalingBenchmark}. They are only run in the {@link DefaultProfile}:
+ * the benchmarks comparing storage configurations switch them themselves, so running them in each profile would only
+ * repeat the same measures.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class AbstractBenchmark extends AbstractTest
+{
+    /** Skip the benchmark if not explicitly asked for, or if not in the default profile. */
+    @Before
+    public void checkBenchmarkEnabled()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        Assume.assumeTrue(getProfile() == DefaultProfile.class);
+    }
+
+    /**
+     * Stop and start XWiki, for example to apply a configuration change.
+     *
+     * @return the time it took, in milliseconds
+     * @throws Exception when failing to stop or start XWiki
+     */
+    protected long restartXWiki() throws Exception
+    {
+        long start = System.nanoTime();
+        getExecutor().stop();
+        getExecutor().start();
+        // The restarted XWiki runs in a new process, with new anti-CSRF tokens.
+        clearProcessId();
+        clearSecretToken();
+        return elapsedMillis(start);
+    }
+
+    /**
+     * Get the address prefix of a wiki of the farm, using path based URLs.
+     *
+     * @param wikiId the identifier of the wiki
+     * @return the address of the wiki actions, ending with a slash
+     */
+    protected String getWikiAddressPrefix(String wikiId)
+    {
+        String binPrefix = getAddressPrefix();
+        return binPrefix.substring(0, binPrefix.length() - "bin/".length()) + "wiki/" + wikiId + '/';
+    }
+
+    /**
+     * Read the list of sizes to benchmark from a System Property.
+     *
+     * @param property the name of the System Property, holding comma separated integers
+     * @param defaultValue the value to use when the property is not set
+     * @return the sizes to benchmark
+     */
+    protected static int[] getSizes(String property, String defaultValue)
+    {
+        String[] values = System.getProperty(property, defaultValue).split("\\s*,\\s*");
+        int[] sizes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sizes[i] = Integer.parseInt(values[i].trim());
+        }
+        return sizes;
+    }
+
+    /**
+     * Check that an action modifying a document succeeded. These actions redirect to the document when they succeed,
+     * but XWiki also answers with a redirect, to the resubmission page, when it rejects the anti-CSRF token.
+     *
+     * @param message the message of the failure
+     * @param ret the executed action
+     */
+    protected static void assertRedirectedToDocument(String message, HttpMethod ret)
+    {
+        Assert.assertEquals(message + ": " + ret.getStatusLine(), 302, ret.getStatusCode());
+        Header location = ret.getResponseHeader("Location");
+        Assert.assertNotNull(message + ": no redirect location", location);
+        Assert.assertFalse(message + ": the anti-CSRF token was rejected",
+            location.getValue().toLowerCase().contains("resubmit"));
+    }
+
+    /**
+     * @param startNanos a value returned by {@link System#nanoTime()}
+     * @return the milliseconds elapsed since {@code startNanos}
+     */
+    protected static long elapsedMillis(long startNanos)
+    {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+}
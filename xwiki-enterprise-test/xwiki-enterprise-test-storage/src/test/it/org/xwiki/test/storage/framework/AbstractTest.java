@@ -19,12 +19,16 @@
  */
 package org.xwiki.test.storage.framework;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.rules.TestName;
 import org.xwiki.test.integration.XWikiExecutor;
@@ -38,28 +42,70 @@
  */
 public class AbstractTest
 {
-    private static XWikiExecutor executor;
+    /**
+     * The executor of the profile being tested. Inherited by the threads started by the tests, and different for each
+     * thread when the profiles are run in parallel.
+     */
+    private static final InheritableThreadLocal<XWikiExecutor> EXECUTOR = new InheritableThreadLocal<XWikiExecutor>();
+
+    /** The class of the configuration profile being tested, per thread like the executor. */
+    private static final InheritableThreadLocal<Class< ? >> PROFILE = new InheritableThreadLocal<Class< ? >>();
+
+    /** Space holding the pages used to execute scripts. */
+    private static final String SCRIPT_SPACE = "Test";
 
     @Rule
     public TestName testName = new TestName();
 
+    /** Account the I/O done by XWiki during each test, when enabled. */
+    @Rule
+    public IOAccountingRule ioAccounting = new IOAccountingRule(this);
+
     /** Cached secret token. TODO cache for each user. */
     private String secretToken = null;
 
+    /** Cached identifier of the XWiki process. */
+    private String processId;
+
     /** Used so that AllTests can set the executor. */
     public static void setExecutor(final XWikiExecutor executor)
     {
-        AbstractTest.executor = executor;
+        EXECUTOR.set(executor);
+    }
+
+    /**
+     * Used so that AllTests can tell the tests which configuration profile they are run in.
+     *
+     * @since 9.5RC1
+     */
+    public static void setProfile(final Class< ? > profile)
+    {
+        PROFILE.set(profile);
+    }
+
+    /**
+     * @return the class of the configuration profile being tested, for tests which only make sense in some profiles
+     * @since 9.5RC1
+     */
+    protected Class< ? > getProfile()
+    {
+        return PROFILE.get();
+    }
+
+    protected XWikiExecutor getExecutor()
+    {
+        return EXECUTOR.get();
     }
 
     protected short getPort()
     {
-        return (short) executor.getPort();
+        return (short) getExecutor().getPort();
     }
 
     protected String getAddressPrefix()
     {
-        return TestUtils.BASE_BIN_URL;
+        // Use the port of the current executor since each profile has its own when they are run in parallel.
+        return TestUtils.BASE_BIN_URL.replaceFirst(":" + XWikiExecutor.DEFAULT_PORT + "/", ":" + getPort() + "/");
     }
 
     protected String getTestMethodName()
@@ -69,9 +115,21 @@ protected String getTestMethodName()
 
     protected HttpMethod doPostAsAdmin(final String space, final String page, final String filename,
         final String action, final String query, final Map<String, String> postParameters) throws IOException
+    {
+        return doPostAsAdmin(space, page, filename, action, query, postParameters, true);
+    }
+
+    /**
+     * Post as administrator, without reading the response body when only the status of the response is needed.
+     *
+     * @since 9.5RC1
+     */
+    protected HttpMethod doPostAsAdmin(final String space, final String page, final String filename,
+        final String action, final String query, final Map<String, String> postParameters,
+        final boolean bufferResponse) throws IOException
     {
         String url = getURL(space, page, filename, action, addBasicauth(query));
-        return StoreTestUtils.doPost(url, TestUtils.ADMIN_CREDENTIALS, postParameters);
+        return StoreTestUtils.doPost(url, TestUtils.ADMIN_CREDENTIALS, postParameters, bufferResponse);
     }
 
     public HttpMethod doUploadAsAdmin(final String space, final String page, final Map<String, byte[]> uploads)
@@ -81,6 +139,134 @@ public HttpMethod doUploadAsAdmin(final String space, final String page, final M
         return StoreTestUtils.doUpload(url, TestUtils.ADMIN_CREDENTIALS, uploads);
     }
 
+    /**
+     * Upload attachments as administrator, streaming their content.
+     *
+     * @since 9.5RC1
+     */
+    public HttpMethod doUploadAsAdmin(final String space, final String page, final PartSource... uploads)
+        throws IOException
+    {
+        String url = getURL(space, page, null, "upload", addBasicauth(null));
+        return StoreTestUtils.doUpload(url, TestUtils.ADMIN_CREDENTIALS, uploads);
+    }
+
+    /**
+     * Execute a Groovy script as administrator and return what it printed.
+     *
+     * @param script the Groovy script to execute
+     * @return the output of the script, trimmed
+     * @throws IOException on connection errors
+     * @since 9.5RC1
+     */
+    protected String executeScript(final String script) throws IOException
+    {
+        HttpMethod ret = doPostAsAdmin(SCRIPT_SPACE, "Script", null, "preview", "xpage=plain&outputSyntax=plain",
+            new HashMap<String, String>() {{
+                put("content", "{{groovy}}\n" + script + "\n{{/groovy}}");
+            }});
+        return new String(ret.getResponseBody(), "UTF-8").trim();
+    }
+
+    /**
+     * Read the heap used by the server JVM through its memory pool MXBeans, without running the garbage collector. The
+     * young generation is counted as it was after its last collection, so that the objects which are not collected
+     * yet don't hide the growth of the live objects, and the other pools as they are now.
+     *
+     * @return the number of bytes used in the server heap
+     * @throws IOException on connection errors
+     * @since 9.5RC1
+     */
+    protected long getServerHeapUsage() throws IOException
+    {
+        String output = executeScript("def used = 0\n"
+            + "for (pool in java.lang.management.ManagementFactory.getMemoryPoolMXBeans()) {\n"
+            + "  if (pool.getType() == java.lang.management.MemoryType.HEAP) {\n"
+            + "    def usage = pool.getName() ==~ /.*(Eden|Survivor).*/ ? pool.getCollectionUsage() : pool.getUsage()\n"
+            + "    used += usage == null ? 0 : usage.getUsed()\n"
+            + "  }\n"
+            + "}\n"
+            + "print(used)");
+        return Long.parseLong(output);
+    }
+
+    /**
+     * Set the maximum size of the uploaded files, i.e. the "upload_maxsize" XWiki preference, which is 32 MB when
+     * not set. Put the previous value back once done since the preference is saved in the database.
+     *
+     * @param maxSize the maximum size in bytes, null to remove the preference
+     * @return the previous maximum size, null when the preference was not set
+     * @throws IOException on connection errors
+     * @since 9.5RC1
+     */
+    protected Long setUploadMaxSize(Long maxSize) throws IOException
+    {
+        String output = executeScript("def doc = xwiki.getDocument('XWiki.XWikiPreferences')\n"
+            + "def obj = doc.getObject('XWiki.XWikiPreferences', true)\n"
+            + "def previous = obj.getProperty('upload_maxsize')?.getValue()\n"
+            + (maxSize != null ? "obj.set('upload_maxsize', " + maxSize + "L)\n"
+                : "obj.getXWikiObject().removeField('upload_maxsize')\n")
+            + "doc.save('Set the maximum upload size', true)\n"
+            + "print(previous == null ? '' : previous)");
+        return output.isEmpty() ? null : Long.valueOf(output);
+    }
+
+    /**
+     * @return the permanent directory of the XWiki instance, holding the database and the filesystem stores
+     * @since 9.5RC1
+     */
+    protected File getDataDirectory()
+    {
+        return new File(getExecutor().getExecutionDirectory(), System.getProperty("xwikiDataDir", "data"));
+    }
+
+    /**
+     * @return the size in bytes of the permanent directory of the XWiki instance
+     * @since 9.5RC1
+     */
+    protected long getDataDirectorySize()
+    {
+        return FileUtils.sizeOfDirectory(getDataDirectory());
+    }
+
+    /**
+     * Take a snapshot of the I/O done by the XWiki process so far and of the size of its data directory. Subtract two
+     * snapshots with {@link IOStatistics#minus(IOStatistics)} to get the I/O caused by the operations in between.
+     *
+     * @return the I/O statistics of the XWiki process
+     * @throws IOException when failing to get the process identifier or to read its statistics
+     * @since 9.5RC1
+     */
+    protected IOStatistics getIOStatistics() throws IOException
+    {
+        if (this.processId == null) {
+            this.processId = executeScript(
+                "print(java.lang.management.ManagementFactory.getRuntimeMXBean().getName().split('@')[0])");
+        }
+
+        return IOStatistics.read(this.processId, getDataDirectory());
+    }
+
+    /**
+     * Forget the cached identifier of the XWiki process, which changes when XWiki is restarted.
+     *
+     * @since 9.5RC1
+     */
+    protected void clearProcessId()
+    {
+        this.processId = null;
+    }
+
+    /**
+     * Forget the cached anti-CSRF secret token, for example after restarting XWiki which generates new tokens.
+     *
+     * @since 9.5RC1
+     */
+    protected void clearSecretToken()
+    {
+        this.secretToken = null;
+    }
+
     /**
      * Adds basicauth=1 to the query string.
      * 
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Collects the measures of a benchmark as rows of a table. Each row is printed on the console when added and the
+ * whole table is written as a CSV file in the "benchmarkDirectory" (target/benchmarks by default) so that runs can be
+ * compared.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class BenchmarkReport
+{
+    private final String name;
+
+    private final String[] columns;
+
+    private final List<Object[]> rows = new ArrayList<Object[]>();
+
+    /**
+     * @param name the name of the report, used as file name
+     * @param columns the name of the columns
+     */
+    public BenchmarkReport(String name, String... columns)
+    {
+        this.name = name;
+        this.columns = columns;
+
+        System.out.println("[" + this.name + "] " + StringUtils.join(this.columns, " | "));
+    }
+
+    /**
+     * Add a row of measures, in the same order as the columns.
+     *
+     * @param values the measures
+     */
+    public void addRow(Object... values)
+    {
+        if (values.length != this.columns.length) {
+            throw new IllegalArgumentException("Expected " + this.columns.length + " values but got "
+                + values.length);
+        }
+
+        this.rows.add(values);
+
+        System.out.println("[" + this.name + "] " + StringUtils.join(values, " | "));
+    }
+
+    /**
+     * @return the rows added so far
+     */
+    public List<Object[]> getRows()
+    {
+        return this.rows;
+    }
+
+    /**
+     * Write the report as a CSV file.
+     *
+     * @return the written file
+     * @throws IOException when failing to write the file
+     */
+    public File write() throws IOException
+    {
+        File file = new File(System.getProperty("benchmarkDirectory", "target/benchmarks"), this.name + ".csv");
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(StringUtils.join(this.columns, ',')).append('\n');
+        for (Object[] row : this.rows) {
+            builder.append(StringUtils.join(row, ',')).append('\n');
+        }
+        FileUtils.writeStringToFile(file, builder.toString(), "UTF-8");
+
+        return file;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.framework;
+
+import java.io.InputStream;
+
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+
+/**
+ * Attachment content generated on the fly, so that attachments of several GB can be uploaded without being held in
+ * memory or written to disk. The content is a pseudo random sequence of bytes depending only on the seed, so a
+ * downloaded attachment can be checked against {@link #createInputStream()}.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class GeneratedPartSource implements PartSource
+{
+    private final String fileName;
+
+    private final long length;
+
+    private final long seed;
+
+    /**
+     * @param fileName the name of the attachment
+     * @param length the number of bytes to generate
+     * @param seed the seed of the generated sequence
+     */
+    public GeneratedPartSource(String fileName, long length, long seed)
+    {
+        this.fileName = fileName;
+        this.length = length;
+        this.seed = seed;
+    }
+
+    @Override
+    public long getLength()
+    {
+        return this.length;
+    }
+
+    @Override
+    public String getFileName()
+    {
+        return this.fileName;
+    }
+
+    @Override
+    public InputStream createInputStream()
+    {
+        return new GeneratedInputStream();
+    }
+
+    /**
+     * Linear congruential generator, cheap enough to produce GB of data and not trivially compressible.
+     */
+    private class GeneratedInputStream extends InputStream
+    {
+        private long position;
+
+        private long state = seed;
+
+        @Override
+        public int read()
+        {
+            if (this.position >= length) {
+                return -1;
+            }
+            this.position++;
+            this.state = this.state * 6364136223846793005L + 1442695040888963407L;
+            return (int) (this.state >>> 56);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count)
+        {
+            if (this.position >= length) {
+                return -1;
+            }
+            int read = (int) Math.min(count, length - this.position);
+            long current = this.state;
+            for (int i = offset; i < offset + read; i++) {
+                current = current * 6364136223846793005L + 1442695040888963407L;
+                buffer[i] = (byte) (current >>> 56);
+            }
+            this.state = current;
+            this.position += read;
+            return read;
+        }
+
+        @Override
+        public int available()
+        {
+            return (int) Math.min(Integer.MAX_VALUE, length - this.position);
+        }
+    }
+}
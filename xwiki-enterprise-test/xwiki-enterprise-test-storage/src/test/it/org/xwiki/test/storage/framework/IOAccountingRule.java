@@ -0,0 +1,87 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.framework;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * Attribute the I/O done by XWiki to each test: take an {@link IOStatistics} snapshot before and after the test and
+ * add the difference to the "io-accounting" report (see {@link BenchmarkReport}), so that write amplification
+ * regressions can be spotted by comparing runs. Disabled unless the "ioAccounting" System Property is true, since
+ * it adds requests to each test.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class IOAccountingRule implements TestRule
+{
+    private static BenchmarkReport report;
+
+    private final AbstractTest test;
+
+    /**
+     * @param test the test to account for
+     */
+    public IOAccountingRule(AbstractTest test)
+    {
+        this.test = test;
+    }
+
+    @Override
+    public Statement apply(final Statement base, final Description description)
+    {
+        if (!Boolean.parseBoolean(System.getProperty("ioAccounting", "false"))) {
+            return base;
+        }
+
+        return new Statement()
+        {
+            @Override
+            public void evaluate() throws Throwable
+            {
+                IOStatistics before = test.getIOStatistics();
+
+                // Failed and skipped tests are not accounted.
+                base.evaluate();
+
+                IOStatistics io = test.getIOStatistics().minus(before);
+                Class< ? > profile = test.getProfile();
+                addRow(profile == null ? "" : profile.getSimpleName(),
+                    StringUtils.substringAfterLast(description.getClassName(), ".") + '#'
+                        + description.getMethodName(), io);
+            }
+        };
+    }
+
+    private static synchronized void addRow(String profile, String test, IOStatistics io) throws Exception
+    {
+        if (report == null) {
+            report = new BenchmarkReport("io-accounting", "profile", "test", "writtenBytes", "readBytes",
+                "writeCalls", "writtenChars", "dataDirectoryBytes", "databaseBytes");
+        }
+
+        report.addRow(profile, test, io.getWrittenBytes(), io.getReadBytes(), io.getWriteCalls(),
+            io.getWrittenChars(), io.getDataDirectoryBytes(), io.getDatabaseBytes());
+        report.write();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Snapshot of the I/O done by the XWiki process, as reported by {@code /proc/<pid>/io} on Linux, and of the size of
+ * its data directory and database. The difference of two snapshots gives the I/O caused by the operations done in
+ * between. The process counters are -1 when they are not available (other operating systems, or XWiki restarted
+ * between the snapshots). Note that fsyncs are not counted by the kernel, only the write system calls are.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class IOStatistics
+{
+    private static final String WRITE_BYTES = "write_bytes";
+
+    private static final String CANCELLED_WRITE_BYTES = "cancelled_write_bytes";
+
+    private final String processId;
+
+    private final Map<String, Long> counters;
+
+    private final long dataDirectoryBytes;
+
+    private final long databaseBytes;
+
+    private IOStatistics(String processId, Map<String, Long> counters, long dataDirectoryBytes, long databaseBytes)
+    {
+        this.processId = processId;
+        this.counters = counters;
+        this.dataDirectoryBytes = dataDirectoryBytes;
+        this.databaseBytes = databaseBytes;
+    }
+
+    /**
+     * @param processId the identifier of the XWiki process
+     * @param dataDirectory the permanent directory of XWiki
+     * @return the current statistics
+     * @throws IOException when failing to read the statistics of the process
+     */
+    public static IOStatistics read(String processId, File dataDirectory) throws IOException
+    {
+        Map<String, Long> counters = new HashMap<String, Long>();
+        File proc = new File("/proc/" + processId + "/io");
+        if (proc.canRead()) {
+            for (String line : FileUtils.readLines(proc, "UTF-8")) {
+                int index = line.indexOf(':');
+                if (index > 0) {
+                    counters.put(line.substring(0, index).trim(), Long.valueOf(line.substring(index + 1).trim()));
+                }
+            }
+        }
+
+        File database = new File(dataDirectory, "database");
+
+        return new IOStatistics(processId, counters,
+            dataDirectory.isDirectory() ? FileUtils.sizeOfDirectory(dataDirectory) : 0,
+            database.isDirectory() ? FileUtils.sizeOfDirectory(database) : 0);
+    }
+
+    /**
+     * @param before a snapshot taken before this one
+     * @return the I/O done between the two snapshots
+     */
+    public IOStatistics minus(IOStatistics before)
+    {
+        Map<String, Long> difference = new HashMap<String, Long>();
+        if (this.processId.equals(before.processId)) {
+            for (Map.Entry<String, Long> counter : this.counters.entrySet()) {
+                Long previous = before.counters.get(counter.getKey());
+                if (previous != null) {
+                    difference.put(counter.getKey(), counter.getValue() - previous);
+                }
+            }
+        }
+
+        return new IOStatistics(this.processId, difference, this.dataDirectoryBytes - before.dataDirectoryBytes,
+            this.databaseBytes - before.databaseBytes);
+    }
+
+    /**
+     * @return true if the process counters are available
+     */
+    public boolean isProcessAccountingAvailable()
+    {
+        return !this.counters.isEmpty();
+    }
+
+    private long get(String counter)
+    {
+        Long value = this.counters.get(counter);
+        return value == null ? -1 : value;
+    }
+
+    /**
+     * @return the bytes the process caused to be written to the storage layer, minus the truncated ones
+     */
+    public long getWrittenBytes()
+    {
+        if (!this.counters.containsKey(WRITE_BYTES)) {
+            return -1;
+        }
+        return get(WRITE_BYTES) - Math.max(0, get(CANCELLED_WRITE_BYTES));
+    }
+
+    /**
+     * @return the bytes the process caused to be read from the storage layer
+     */
+    public long getReadBytes()
+    {
+        return get("read_bytes");
+    }
+
+    /**
+     * @return the bytes passed to write system calls, including sockets and the page cache
+     */
+    public long getWrittenChars()
+    {
+        return get("wchar");
+    }
+
+    /**
+     * @return the number of write system calls
+     */
+    public long getWriteCalls()
+    {
+        return get("syscw");
+    }
+
+    /**
+     * @return the size of the data directory, holding the database and the filesystem stores
+     */
+    public long getDataDirectoryBytes()
+    {
+        return this.dataDirectoryBytes;
+    }
+
+    /**
+     * @return the size of the database files
+     */
+    public long getDatabaseBytes()
+    {
+        return this.databaseBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d bytes written, %d bytes read, %d write calls, data directory %+d bytes, "
+            + "database %+d bytes", getWrittenBytes(), getReadBytes(), getWriteCalls(), getDataDirectoryBytes(),
+            getDatabaseBytes());
+    }
+}
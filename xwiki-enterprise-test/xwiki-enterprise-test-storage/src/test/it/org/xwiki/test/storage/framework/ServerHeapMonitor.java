@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.framework;
+
+import java.io.IOException;
+
+/**
+ * Samples the heap of the XWiki JVM in the background, through its memory pool MXBeans, and keeps the highest value.
+ * The samples don't run the garbage collector, which would change what is measured; see
+ * {@link AbstractTest#getServerHeapUsage()} for what they count.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class ServerHeapMonitor implements Runnable
+{
+    private final AbstractTest test;
+
+    private final long period;
+
+    private Thread thread;
+
+    private volatile boolean running;
+
+    private volatile long max;
+
+    private volatile IOException error;
+
+    /**
+     * @param test the test giving access to the XWiki instance
+     * @param period the time to wait between two samples, in milliseconds
+     */
+    public ServerHeapMonitor(AbstractTest test, long period)
+    {
+        this.test = test;
+        this.period = period;
+    }
+
+    /**
+     * Start sampling.
+     */
+    public void start()
+    {
+        this.max = 0;
+        this.error = null;
+        this.running = true;
+        this.thread = new Thread(this, "Server heap monitor");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stop sampling.
+     *
+     * @return the highest heap usage sampled, in bytes
+     * @throws IOException when a sample failed
+     * @throws InterruptedException when interrupted while waiting for the sampling thread
+     */
+    public long stop() throws IOException, InterruptedException
+    {
+        this.running = false;
+        this.thread.interrupt();
+        this.thread.join();
+
+        if (this.error != null) {
+            throw this.error;
+        }
+
+        return this.max;
+    }
+
+    /**
+     * @return the highest heap usage sampled so far, in bytes
+     */
+    public long getMax()
+    {
+        return this.max;
+    }
+
+    @Override
+    public void run()
+    {
+        while (this.running) {
+            try {
+                this.max = Math.max(this.max, this.test.getServerHeapUsage());
+                Thread.sleep(this.period);
+            } catch (InterruptedException e) {
+                // Stopped.
+            } catch (IOException e) {
+                this.error = e;
+                this.running = false;
+            }
+        }
+    }
+}
@@ -26,13 +26,18 @@
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.multipart.ByteArrayPartSource;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.xwiki.test.framework.HttpStatistics;
 
 /**
  * Test saving and downloading of attachments.
@@ -42,56 +47,155 @@
  */
 public final class StoreTestUtils
 {
+    /** Maximum number of connections opened to XWiki by the tests at the same time. */
+    private static final int MAX_CONNECTIONS = 50;
+
+    /**
+     * Shared by all the requests so that connections are reused and requests can be sent concurrently. The
+     * credentials are given with each request.
+     */
+    private static final HttpClient CLIENT;
+
+    static {
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS);
+        connectionManager.getParams().setMaxTotalConnections(MAX_CONNECTIONS);
+
+        CLIENT = new HttpClient(connectionManager);
+        // Only sent when the request has credentials.
+        CLIENT.getParams().setAuthenticationPreemptive(true);
+    }
+
     public static String getPageAsString(final String address) throws IOException
     {
         final HttpMethod ret = doPost(address, null, null);
-        return new String(ret.getResponseBody(), "UTF-8");
+        return new String(HttpStatistics.getInstance().getResponseBody(ret), "UTF-8");
     }
 
     /** Method to easily do a post request to the site. */
     public static HttpMethod doPost(final String address, final UsernamePasswordCredentials userNameAndPassword,
         final Map<String, String> parameters) throws IOException
     {
-        final HttpClient client = new HttpClient();
-        final PostMethod method = new PostMethod(address);
+        return doPost(address, userNameAndPassword, parameters, true);
+    }
 
-        if (userNameAndPassword != null) {
-            client.getState().setCredentials(AuthScope.ANY, userNameAndPassword);
-            client.getParams().setAuthenticationPreemptive(true);
-        }
+    /**
+     * Do a post request to the site.
+     *
+     * @param address the URL to post to
+     * @param userNameAndPassword the credentials, null for guest
+     * @param parameters the parameters to post, can be null
+     * @param bufferResponse true to read the response body in memory, false when only the status and the headers of
+     *            the response are needed
+     * @return the executed method
+     * @throws IOException on connection errors
+     * @since 9.5RC1
+     */
+    public static HttpMethod doPost(final String address, final UsernamePasswordCredentials userNameAndPassword,
+        final Map<String, String> parameters, final boolean bufferResponse) throws IOException
+    {
+        final PostMethod method = new PostMethod(address);
 
         if (parameters != null) {
             for (Map.Entry<String, String> e : parameters.entrySet()) {
                 method.addParameter(e.getKey(), e.getValue());
             }
         }
-        client.executeMethod(method);
-        return method;
+
+        return executeAndRelease(method, userNameAndPassword, bufferResponse);
     }
 
+    /**
+     * Upload attachments. Only the status and the headers of the response are available.
+     */
     public static HttpMethod doUpload(final String address, final UsernamePasswordCredentials userNameAndPassword,
         final Map<String, byte[]> uploads) throws IOException
     {
-        final HttpClient client = new HttpClient();
-        final PostMethod method = new PostMethod(address);
-
-        if (userNameAndPassword != null) {
-            client.getState().setCredentials(AuthScope.ANY, userNameAndPassword);
-            client.getParams().setAuthenticationPreemptive(true);
-        }
-
-        Part[] parts = new Part[uploads.size()];
+        PartSource[] sources = new PartSource[uploads.size()];
         int i = 0;
         for (Map.Entry<String, byte[]> e : uploads.entrySet()) {
-            parts[i++] = new FilePart("filepath", new ByteArrayPartSource(e.getKey(), e.getValue()));
+            sources[i++] = new ByteArrayPartSource(e.getKey(), e.getValue());
+        }
+
+        return doUpload(address, userNameAndPassword, sources);
+    }
+
+    /**
+     * Upload attachments without holding them in memory: the content is read from the sources while it is sent, so
+     * use {@link org.apache.commons.httpclient.methods.multipart.FilePartSource} or {@link GeneratedPartSource} for
+     * big attachments.
+     *
+     * @param address the upload URL
+     * @param userNameAndPassword the credentials, null for guest
+     * @param uploads the attachments to upload, named by {@link PartSource#getFileName()}
+     * @return the executed method, only its status and headers are available
+     * @throws IOException on connection errors
+     * @since 9.5RC1
+     */
+    public static HttpMethod doUpload(final String address, final UsernamePasswordCredentials userNameAndPassword,
+        final PartSource... uploads) throws IOException
+    {
+        final PostMethod method = new PostMethod(address);
+
+        Part[] parts = new Part[uploads.length];
+        for (int i = 0; i < uploads.length; i++) {
+            parts[i] = new FilePart("filepath", uploads[i]);
         }
         MultipartRequestEntity entity = new MultipartRequestEntity(parts, method.getParams());
         method.setRequestEntity(entity);
 
-        client.executeMethod(method);
+        return executeAndRelease(method, userNameAndPassword, false);
+    }
+
+    /**
+     * Send a GET request without reading the response so that it can be streamed with
+     * {@link HttpMethod#getResponseBodyAsStream()}, for example to check a big attachment. The caller has to call
+     * {@link HttpMethod#releaseConnection()} once done.
+     *
+     * @param address the URL to get
+     * @param userNameAndPassword the credentials, null for guest
+     * @return the executed method
+     * @throws IOException on connection errors
+     * @since 9.5RC1
+     */
+    public static HttpMethod doStreamingGet(final String address,
+        final UsernamePasswordCredentials userNameAndPassword) throws IOException
+    {
+        final GetMethod method = new GetMethod(address);
+        execute(method, userNameAndPassword);
         return method;
     }
 
+    /**
+     * Execute a method and release its connection so that it goes back to the pool right away. When the response
+     * body is not buffered it is skipped while releasing the connection, without being held in memory.
+     */
+    private static HttpMethod executeAndRelease(final HttpMethod method,
+        final UsernamePasswordCredentials userNameAndPassword, final boolean bufferResponse) throws IOException
+    {
+        try {
+            execute(method, userNameAndPassword);
+            if (bufferResponse) {
+                method.getResponseBody();
+            }
+        } finally {
+            method.releaseConnection();
+        }
+        return method;
+    }
+
+    private static void execute(final HttpMethod method, final UsernamePasswordCredentials userNameAndPassword)
+        throws IOException
+    {
+        HttpState state = new HttpState();
+        if (userNameAndPassword != null) {
+            state.setCredentials(AuthScope.ANY, userNameAndPassword);
+        }
+
+        HttpStatistics.getInstance().countRequest();
+        CLIENT.executeMethod(null, method, state);
+    }
+
     /**
      * Encodes a given string so that it may be used as a URL component. Compatable with javascript decodeURIComponent,
      * though more strict than encodeURIComponent: all characters except [a-zA-Z0-9], '.', '-', '*', '_' are converted
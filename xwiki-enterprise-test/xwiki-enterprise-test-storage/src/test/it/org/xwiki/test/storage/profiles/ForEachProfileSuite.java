@@ -19,28 +19,43 @@
  */
 package org.xwiki.test.storage.profiles;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.extensions.cpsuite.ClassTester;
 import org.junit.extensions.cpsuite.ClasspathClassesFinder;
 import org.junit.extensions.cpsuite.ClasspathSuite;
+import org.junit.runner.Description;
 import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.RunnerBuilder;
 import org.xwiki.component.phase.Initializable;
+import org.xwiki.test.framework.HttpStatistics;
 import org.xwiki.test.integration.XWikiExecutor;
 
 /**
  * Run all tests in multiple configuration profiles and start/stop XWiki for each profile. Run all tests found in the
  * current classloader using <a href="http://www.johanneslink.net/projects/cpsuite.jsp">cpsuite</a> (we extend it).
- * Tests can be filtered by passing the "pattern" System Property.
+ * Tests can be filtered by passing the "pattern" System Property. Profiles can be run in parallel by setting the
+ * "profileThreads" System Property to the number of XWiki instances to run at the same time. Each profile gets its own
+ * test runners and the tests are reported once per profile, their names suffixed with the profile name.
  * 
  * @version $Id$
  * @since 3.0RC1
@@ -49,9 +64,27 @@ public class ForEachProfileSuite extends ClasspathSuite
 {
     public static final String PATTERN = ".*" + System.getProperty("pattern", "");
 
+    /**
+     * The System Property holding the number of profiles to run at the same time, 1 by default. Each profile run in
+     * parallel starts its own XWiki instance.
+     */
+    public static final String PROFILE_THREADS = "profileThreads";
+
+    /**
+     * Used to create new test runners for each profile.
+     */
+    private final RunnerBuilder builder;
+
+    /**
+     * The enabled configuration profiles, lazily loaded.
+     */
+    private List<Profile> profiles;
+
     public ForEachProfileSuite(Class< ? > klass, RunnerBuilder builder) throws InitializationError
     {
         super(klass, builder);
+
+        this.builder = builder;
     }
 
     @Override
@@ -70,76 +103,305 @@ protected List<Runner> getChildren()
     }
 
     @Override
-    public void run(RunNotifier notifier)
+    public Description getDescription()
+    {
+        Description suite = Description.createSuiteDescription(getName(), getRunnerAnnotations());
+        for (Profile profile : getProfiles()) {
+            String profileName = profile.getClass().getSimpleName();
+            Description profileSuite = Description.createSuiteDescription(profileName);
+            for (Runner runner : getChildren()) {
+                profileSuite.addChild(describe(runner.getDescription(), profileName));
+            }
+            suite.addChild(profileSuite);
+        }
+
+        return suite;
+    }
+
+    /**
+     * @return the enabled configuration profiles found in the classpath
+     */
+    private synchronized List<Profile> getProfiles()
+    {
+        if (this.profiles == null) {
+            final List<Class< ? >> profileClasses =
+                new ClasspathClassesFinder(IsProfileTester.INSTANCE, "java.class.path").find();
+            final List<Profile> enabledProfiles = new ArrayList<Profile>();
+            for (Class< ? > profileClass : profileClasses) {
+                try {
+                    Profile profile = (Profile) profileClass.newInstance();
+                    if (profile.isEnabled()) {
+                        enabledProfiles.add(profile);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to instanciate configuration profile.", e);
+                }
+            }
+            this.profiles = enabledProfiles;
+        }
+
+        return this.profiles;
+    }
+
+    @Override
+    public void run(final RunNotifier notifier)
+    {
+        // Count the HTTP traffic of each profile, only while the profiles are run since it's counted for the whole JVM.
+        HttpStatistics.install();
+        try {
+            runProfiles(notifier);
+        } finally {
+            HttpStatistics.uninstall();
+        }
+    }
+
+    private void runProfiles(final RunNotifier notifier)
     {
-        // Get the list of test profiles.
-        final List<Class< ? >> profiles =
-            new ClasspathClassesFinder(IsProfileTester.INSTANCE, "java.class.path").find();
+        final List<Profile> profiles = getProfiles();
+
+        // Number of profiles to run at the same time.
+        final int threads = Math.max(1, Math.min(Integer.getInteger(PROFILE_THREADS, 1), profiles.size()));
 
         final Map<Profile, XWikiExecutor> executorByProfile = new HashMap<Profile, XWikiExecutor>();
         for (int i = 0; i < profiles.size(); i++) {
             try {
-                // All executors are #0 because they will not be run in parallel.
-                executorByProfile.put(((Class<Profile>) profiles.get(i)).newInstance(), new XWikiExecutor(0));
+                // All executors are #0 when they are not run in parallel. Otherwise each profile gets its own
+                // executor, with its own ports and execution directory.
+                executorByProfile.put(profiles.get(i), threads > 1 ? createExecutor(i) : new XWikiExecutor(0));
             } catch (Exception e) {
-                throw new RuntimeException("Failed to instanciate configuration profile.", e);
+                throw new RuntimeException("Failed to create the XWiki Executor.", e);
+            }
+        }
+
+        if (threads == 1) {
+            for (final Profile profile : executorByProfile.keySet()) {
+                HttpStatistics.getInstance().reset();
+                run(profile, executorByProfile.get(profile), notifier);
+                System.out.println("[" + profile.getClass().getSimpleName() + "] HTTP: "
+                    + HttpStatistics.getInstance());
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future< ? >> futures = new ArrayList<Future< ? >>();
+            for (final Profile profile : executorByProfile.keySet()) {
+                futures.add(pool.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        ForEachProfileSuite.this.run(profile, executorByProfile.get(profile), notifier);
+                    }
+                }));
             }
+            pool.shutdown();
+
+            // Wait for all the profiles, even when one of them fails, so that each of them stops its XWiki instance
+            // and restores its configuration before the suite ends.
+            RuntimeException failure = null;
+            for (Future< ? > future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new RuntimeException("Failed to run config profile.", e.getCause());
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    pool.shutdownNow();
+                    awaitTermination(pool);
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+
+            // The traffic of the profiles can't be told apart when they run at the same time.
+            System.out.println("[" + threads + " parallel profiles] HTTP: " + HttpStatistics.getInstance());
         }
+    }
 
-        // Callback to setup executors in the suite class.
+    /**
+     * Wait for the interrupted profiles to stop their XWiki instance.
+     *
+     * @param pool the pool running the profiles
+     */
+    private void awaitTermination(ExecutorService pool)
+    {
         try {
-            for (Profile profile : executorByProfile.keySet()) {
-                profile.apply(executorByProfile.get(profile));
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                // The profiles stop their XWiki instance in a finally block.
             }
+        } catch (InterruptedException e) {
+            // Stop waiting, the caller restores the interrupted status.
+        }
+    }
+
+    /**
+     * Start XWiki, run all the tests in the given profile and stop XWiki. The test class is initialized in the current
+     * thread so that the executor is available to the tests run by this thread.
+     */
+    private void run(Profile profile, XWikiExecutor executor, RunNotifier notifier)
+    {
+        // Callback to setup the executor, just before starting it since executors #0 share the same configuration.
+        final Properties originalConfiguration;
+        try {
+            originalConfiguration = executor.loadXWikiCfg();
+            profile.apply(executor);
         } catch (Exception e) {
-            throw new RuntimeException("Failed to initialize XWiki Executors", e);
+            throw new RuntimeException("Failed to initialize XWiki Executor", e);
         }
 
-        for (final Profile profile : executorByProfile.keySet()) {
-            final XWikiExecutor executor = executorByProfile.get(profile);
-            try {
+        try {
 
-                try {
-                    executor.start();
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to start XWiki", e);
-                }
+            try {
+                executor.start();
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to start XWiki", e);
+            }
 
-                try {
-                    Object instance = this.getTestClass().getJavaClass().newInstance();
+            try {
+                Object instance = this.getTestClass().getJavaClass().newInstance();
 
-                    // If there is a field which is an XWikiExecutor type
-                    // and has an @Inject annotation, inject the current executor.
-                    for (Field field : this.getTestClass().getJavaClass().getDeclaredFields()) {
-                        if (field.getType() == XWikiExecutor.class && field.getAnnotation(Inject.class) != null) {
+                // If there is a field which is an XWikiExecutor or a Profile type
+                // and has an @Inject annotation, inject the current executor or profile.
+                for (Field field : this.getTestClass().getJavaClass().getDeclaredFields()) {
+                    if (field.getAnnotation(Inject.class) != null) {
+                        if (field.getType() == XWikiExecutor.class) {
                             field.setAccessible(true);
                             field.set(instance, executor);
+                        } else if (field.getType() == Profile.class) {
+                            field.setAccessible(true);
+                            field.set(instance, profile);
                         }
                     }
+                }
 
-                    // If the class is initializable then call initialize.
-                    final Class< ? >[] interfaces = this.getTestClass().getJavaClass().getInterfaces();
-                    for (int i = 0; i < interfaces.length; i++) {
-                        if (interfaces[i] == Initializable.class) {
-                            this.getTestClass().getJavaClass().getMethod("initialize").invoke(instance);
-                        }
+                // If the class is initializable then call initialize.
+                final Class< ? >[] interfaces = this.getTestClass().getJavaClass().getInterfaces();
+                for (int i = 0; i < interfaces.length; i++) {
+                    if (interfaces[i] == Initializable.class) {
+                        this.getTestClass().getJavaClass().getMethod("initialize").invoke(instance);
                     }
-
-                } catch (Exception e) {
-                    throw new RuntimeException("Failed to prepare tests to run in config profile.", e);
                 }
 
-                super.run(notifier);
-            } finally {
-                try {
-                    executor.stop();
-                } catch (Exception e) {
-                    // Squash this and let the original exception be thrown.
-                }
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to prepare tests to run in config profile.", e);
+            }
+
+            // New runners for each profile so that profiles run in parallel don't share any runner state.
+            RunNotifier profileNotifier = new ProfileRunNotifier(notifier, profile.getClass().getSimpleName());
+            for (Runner child : getChildren()) {
+                this.builder.safeRunnerForClass(child.getDescription().getTestClass()).run(profileNotifier);
+            }
+        } finally {
+            try {
+                executor.stop();
+                // Don't leak the configuration of this profile to the next one.
+                executor.saveXWikiCfg(originalConfiguration);
+            } catch (Exception e) {
+                // Squash this and let the original exception be thrown.
             }
         }
     }
 
+    /**
+     * Create an executor for a profile run in parallel. The execution directory of the first executor, which is the
+     * one unpacked by the build, is copied so that each profile has its own configuration and data directory.
+     *
+     * @param index the index of the executor, used to compute its ports and execution directory
+     * @return the executor
+     * @throws IOException when failing to copy the execution directory
+     */
+    private XWikiExecutor createExecutor(int index) throws IOException
+    {
+        XWikiExecutor executor = new XWikiExecutor(index);
+
+        if (index > 0) {
+            File source = new File(new XWikiExecutor(0).getExecutionDirectory());
+            File target = new File(executor.getExecutionDirectory());
+            FileUtils.deleteDirectory(target);
+            FileUtils.copyDirectory(source, target);
+        }
+
+        return executor;
+    }
+
+    /**
+     * Copy a description, suffixing the test names with the name of the profile they are run in.
+     *
+     * @param description the description to copy
+     * @param profileName the name of the profile
+     * @return the copy
+     */
+    private static Description describe(Description description, String profileName)
+    {
+        Annotation[] annotations = description.getAnnotations().toArray(new Annotation[0]);
+        Description copy;
+        if (description.isTest()) {
+            copy = Description.createTestDescription(description.getClassName(),
+                description.getMethodName() + " [" + profileName + "]", annotations);
+        } else {
+            copy = Description.createSuiteDescription(description.getDisplayName() + " [" + profileName + "]",
+                annotations);
+        }
+        for (Description child : description.getChildren()) {
+            copy.addChild(describe(child, profileName));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Reports the tests of a profile to the suite notifier under the description of the profile.
+     */
+    private static class ProfileRunNotifier extends RunNotifier
+    {
+        private final RunNotifier notifier;
+
+        private final String profileName;
+
+        ProfileRunNotifier(RunNotifier notifier, String profileName)
+        {
+            this.notifier = notifier;
+            this.profileName = profileName;
+        }
+
+        @Override
+        public void fireTestStarted(Description description)
+        {
+            this.notifier.fireTestStarted(describe(description, this.profileName));
+        }
+
+        @Override
+        public void fireTestFailure(Failure failure)
+        {
+            this.notifier.fireTestFailure(new Failure(describe(failure.getDescription(), this.profileName),
+                failure.getException()));
+        }
+
+        @Override
+        public void fireTestAssumptionFailed(Failure failure)
+        {
+            this.notifier.fireTestAssumptionFailed(new Failure(describe(failure.getDescription(), this.profileName),
+                failure.getException()));
+        }
+
+        @Override
+        public void fireTestIgnored(Description description)
+        {
+            this.notifier.fireTestIgnored(describe(description, this.profileName));
+        }
+
+        @Override
+        public void fireTestFinished(Description description)
+        {
+            this.notifier.fireTestFinished(describe(description, this.profileName));
+        }
+    }
+
     /**
      * Tester which will help ClassPathSuite find all Profiles.
      */
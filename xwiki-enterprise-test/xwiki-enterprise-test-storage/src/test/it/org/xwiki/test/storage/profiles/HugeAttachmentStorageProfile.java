@@ -0,0 +1,56 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.storage.profiles;
+
+import java.util.Properties;
+
+import org.xwiki.test.integration.XWikiExecutor;
+
+/**
+ * Test profile for checking that attachments of several GB are streamed by the filesystem attachment store: the
+ * filesystem stores are enabled and XWiki is started with a heap smaller than the attachments, so buffering one whole
+ * would fail. This profile is expensive so it's only enabled when the "hugeAttachments" System Property is true. The
+ * server heap can be changed with the "hugeAttachments.serverHeap" System Property (512m by default).
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class HugeAttachmentStorageProfile implements Profile
+{
+    @Override
+    public void apply(final XWikiExecutor executor) throws Exception
+    {
+        final Properties conf = executor.loadXWikiCfg();
+
+        conf.setProperty("xwiki.store.attachment.hint", "file");
+        conf.setProperty("xwiki.store.attachment.versioning.hint", "file");
+        conf.setProperty("xwiki.store.attachment.recyclebin.hint", "file");
+
+        executor.saveXWikiCfg(conf);
+
+        executor.setXWikiOpts("-Xmx" + System.getProperty("hugeAttachments.serverHeap", "512m"));
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return Boolean.getBoolean("hugeAttachments");
+    }
+}
@@ -31,4 +31,13 @@
 {
     /** Apply the configuration profile. */
     public void apply(final XWikiExecutor executor) throws Exception;
+
+    /**
+     * @return false to skip this profile, for profiles which are too expensive to be run by default
+     * @since 9.5RC1
+     */
+    default boolean isEnabled()
+    {
+        return true;
+    }
 }
@@ -0,0 +1,205 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.webstandards;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.xwiki.test.framework.HttpStatistics;
+import org.xwiki.test.webstandards.framework.Target;
+import org.xwiki.validator.ValidationError;
+import org.xwiki.validator.ValidationError.Type;
+import org.xwiki.validator.Validator;
+
+/**
+ * Base class for the validators which also download the resources referenced by the validated page. The target and
+ * the client are set by {@link ResourceValidationTest} before each validation.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public abstract class AbstractResourceValidator implements Validator
+{
+    protected final List<ValidationError> errors = new ArrayList<ValidationError>();
+
+    protected byte[] document;
+
+    protected Header[] responseHeaders = new Header[0];
+
+    protected Target target;
+
+    protected String url;
+
+    protected HttpClient client;
+
+    protected String credentials;
+
+    /**
+     * Set the target being analyzed.
+     *
+     * @param target the target
+     * @param url the URL of the target, used to resolve the referenced resources
+     */
+    public void setTarget(Target target, String url)
+    {
+        this.target = target;
+        this.url = url;
+    }
+
+    /**
+     * Set the client used to download the referenced resources.
+     *
+     * @param client the client
+     * @param credentials the credentials to use, null for guest
+     */
+    public void setClient(HttpClient client, String credentials)
+    {
+        this.client = client;
+        this.credentials = credentials;
+    }
+
+    /**
+     * Set the headers of the response holding the validated document.
+     *
+     * @param responseHeaders the response headers
+     */
+    public void setResponseHeaders(Header[] responseHeaders)
+    {
+        this.responseHeaders = responseHeaders;
+    }
+
+    @Override
+    public void setDocument(InputStream document)
+    {
+        try {
+            this.document = IOUtils.toByteArray(document);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the document", e);
+        }
+    }
+
+    /**
+     * @return the validated document, parsed as HTML
+     */
+    protected Document parseDocument()
+    {
+        return Jsoup.parse(new String(this.document), this.url == null ? "" : this.url);
+    }
+
+    /**
+     * @param resource the URL of a resource
+     * @return true if the resource is served by the tested XWiki instance
+     */
+    protected boolean isLocal(String resource)
+    {
+        if (this.url == null) {
+            return false;
+        }
+
+        try {
+            URI resourceURI = new URI(resource);
+            URI pageURI = new URI(this.url);
+            return StringUtils.equals(resourceURI.getHost(), pageURI.getHost())
+                && resourceURI.getPort() == pageURI.getPort();
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Send a GET request with the credentials of the validated page. The caller has to release the connection.
+     *
+     * @param resource the URL to get
+     * @param acceptEncoding the value of the Accept-Encoding header
+     * @return the executed method
+     * @throws IOException when failing to send the request
+     */
+    protected GetMethod get(String resource, String acceptEncoding) throws IOException
+    {
+        GetMethod method = new GetMethod(resource);
+        method.setFollowRedirects(true);
+        method.addRequestHeader("Accept-Encoding", acceptEncoding);
+        if (this.credentials != null) {
+            method.addRequestHeader("Authorization",
+                "Basic " + new String(Base64.encodeBase64(this.credentials.getBytes())));
+        }
+
+        try {
+            HttpStatistics.getInstance().countRequest();
+            this.client.executeMethod(method);
+        } catch (IOException e) {
+            method.releaseConnection();
+            throw e;
+        }
+
+        return method;
+    }
+
+    /**
+     * @param headers the headers of a response
+     * @param name the name of a header
+     * @return the value of the first header with the given name, lower cased, or an empty string if there is none
+     */
+    protected static String getHeader(Header[] headers, String name)
+    {
+        for (Header header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header.getValue().toLowerCase();
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     * Add an error for the whole document.
+     *
+     * @param type the type of the error
+     * @param message the message of the error
+     */
+    protected void addError(Type type, String message)
+    {
+        this.errors.add(new ValidationError(type, -1, -1, message));
+    }
+
+    @Override
+    public List<ValidationError> getErrors()
+    {
+        return this.errors;
+    }
+
+    @Override
+    public void clear()
+    {
+        this.errors.clear();
+    }
+}
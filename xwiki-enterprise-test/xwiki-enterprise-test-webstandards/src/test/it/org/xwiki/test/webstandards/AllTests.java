@@ -19,10 +19,18 @@
  */
 package org.xwiki.test.webstandards;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xwiki.test.framework.HttpStatistics;
 import org.xwiki.test.integration.XWikiTestSetup;
+import org.xwiki.test.webstandards.framework.AbstractValidationTest;
 import org.xwiki.test.webstandards.framework.DefaultValidationTest;
+import org.xwiki.test.webstandards.framework.ResponseCache;
+import org.xwiki.test.webstandards.framework.ResponseTimes;
 import org.xwiki.validator.HTML5Validator;
 import org.xwiki.validator.RSSValidator;
+import org.xwiki.validator.Validator;
 import org.xwiki.validator.XWikiValidator;
 
 import junit.framework.Test;
@@ -50,22 +58,34 @@ public static Test suite() throws Exception
         // (there are complex solutions like searching for all tests by parsing the source tree).
         // I think there are TestSuite that do this out there but I haven't looked for them yet.
 
-        HTML5Validator html5Validator = new HTML5Validator();
-        addTest(suite, DefaultValidationTest.suite(DefaultValidationTest.class, html5Validator),
-            DefaultValidationTest.class);
-
-        CustomDutchWebGuidelinesValidator dwgValidator = new CustomDutchWebGuidelinesValidator();
-        addTest(suite, CustomDutchWebGuidelinesValidationTest.suite(CustomDutchWebGuidelinesValidationTest.class,
-            dwgValidator), DefaultValidationTest.class);
+        // The validators share the same targets so we validate each target with all of them at once, in order to
+        // fetch it only once.
+        Map<Validator, Class< ? extends AbstractValidationTest>> validators =
+            new LinkedHashMap<Validator, Class< ? extends AbstractValidationTest>>();
+        validators.put(new HTML5Validator(), DefaultValidationTest.class);
+        validators.put(new CustomDutchWebGuidelinesValidator(), CustomDutchWebGuidelinesValidationTest.class);
+        validators.put(new XWikiValidator(), DefaultValidationTest.class);
+        validators.put(new PageWeightValidator(), ResourceValidationTest.class);
+        validators.put(new CacheHeadersValidator(), ResourceValidationTest.class);
+        addTest(suite, AbstractValidationTest.suite(validators), DefaultValidationTest.class);
 
         RSSValidator rssValidator = new RSSValidator();
         addTest(suite, RSSValidationTest.suite(RSSValidationTest.class, rssValidator), RSSValidationTest.class);
 
-        XWikiValidator xwikiValidator = new XWikiValidator();
-        addTest(suite, DefaultValidationTest.suite(DefaultValidationTest.class, xwikiValidator),
-            DefaultValidationTest.class);
-        
-        return new XWikiTestSetup(suite);
+        return new XWikiTestSetup(suite)
+        {
+            @Override
+            protected void tearDown() throws Exception
+            {
+                System.out.println("HTTP: " + HttpStatistics.getInstance());
+                System.out.println("Response cache: " + ResponseCache.getInstance());
+                System.out.println("Slowest responses:" + ResponseTimes.getInstance().getSlowest(10));
+                System.out.println("Responses over budget:" + ResponseTimes.getInstance().getOverruns());
+                HttpStatistics.uninstall();
+
+                super.tearDown();
+            }
+        };
     }
 
     private static void addTest(TestSuite suite, Test test, Class< ? > testClass) throws Exception
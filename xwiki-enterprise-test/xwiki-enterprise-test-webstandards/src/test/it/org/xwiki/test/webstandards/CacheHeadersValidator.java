@@ -0,0 +1,215 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.webstandards;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.xwiki.validator.ValidationError;
+import org.xwiki.validator.ValidationError.Type;
+
+/**
+ * Verifies the HTTP caching and compression headers of the validated pages and of the skin, SSX, JSX and WebJar
+ * resources they reference:
+ * <ul>
+ * <li>the static resources must have a strong validator (ETag or Last-Modified), a long Cache-Control max-age and, if
+ * they are text, be compressed (gzip or br Content-Encoding)</li>
+ * <li>the pages viewed as guest should not forbid any caching with Cache-Control no-store (warning)</li>
+ * </ul>
+ * The headers of the page are the ones of the response validated by the other validators, so the page is not fetched
+ * again. Each resource is checked only once and its problems are reported on every page referencing it, whatever the
+ * order in which the pages are validated.
+ * <p>
+ * The following configuration properties are supported (set in maven):
+ * <ul>
+ * <li>cacheHeaders.minMaxAge (optional): Minimum Cache-Control max-age of the static resources, in seconds, 86400 by
+ * default</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class CacheHeadersValidator extends AbstractResourceValidator
+{
+    private static final Pattern STATIC_RESOURCE = Pattern.compile(".*/(skin|ssx|jsx|webjars|resources)/.*");
+
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    private static final Pattern COMPRESSIBLE =
+        Pattern.compile("text/.*|.*(javascript|json|xml|svg).*", Pattern.CASE_INSENSITIVE);
+
+    private static final String CACHE_CONTROL = "Cache-Control";
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    /**
+     * The problems of the resources checked or being checked, shared by all the pages since most of them reference
+     * the same skin.
+     */
+    private static final ConcurrentMap<String, FutureTask<List<ValidationError>>> RESOURCE_ERRORS =
+        new ConcurrentHashMap<String, FutureTask<List<ValidationError>>>();
+
+    private final long minMaxAge = Long.getLong("cacheHeaders.minMaxAge", 86400);
+
+    @Override
+    public List<ValidationError> validate()
+    {
+        clear();
+
+        if (this.client == null) {
+            return this.errors;
+        }
+
+        // The pages of logged in users are private so only the guest views are expected to be cacheable.
+        if (this.credentials == null) {
+            checkPage();
+        }
+
+        Document html = parseDocument();
+        Set<String> resources = new LinkedHashSet<String>();
+        for (Element script : html.select("script[src]")) {
+            resources.add(script.absUrl("src"));
+        }
+        for (Element link : html.select("link[rel=stylesheet][href]")) {
+            resources.add(link.absUrl("href"));
+        }
+        for (Element image : html.select("img[src]")) {
+            resources.add(image.absUrl("src"));
+        }
+
+        for (String resource : resources) {
+            if (isLocal(resource) && STATIC_RESOURCE.matcher(resource).matches()) {
+                this.errors.addAll(getResourceErrors(resource));
+            }
+        }
+
+        return this.errors;
+    }
+
+    private void checkPage()
+    {
+        String cacheControl = getHeader(this.responseHeaders, CACHE_CONTROL);
+        if (cacheControl.contains("no-store")) {
+            addError(Type.WARNING, "The page is marked uncacheable (" + CACHE_CONTROL + ": " + cacheControl
+                + "), even browser revalidation is prevented");
+        }
+    }
+
+    /**
+     * @param resource the URL of a resource
+     * @return the problems of the resource, checked by the first page referencing it
+     */
+    private List<ValidationError> getResourceErrors(final String resource)
+    {
+        FutureTask<List<ValidationError>> task = new FutureTask<List<ValidationError>>(
+            new Callable<List<ValidationError>>()
+            {
+                @Override
+                public List<ValidationError> call()
+                {
+                    return checkResource(resource);
+                }
+            });
+        FutureTask<List<ValidationError>> existing = RESOURCE_ERRORS.putIfAbsent(resource, task);
+        if (existing == null) {
+            task.run();
+        } else {
+            task = existing;
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while checking [" + resource + "]", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to check [" + resource + "]", e.getCause());
+        }
+    }
+
+    private List<ValidationError> checkResource(String resource)
+    {
+        List<ValidationError> resourceErrors = new ArrayList<ValidationError>();
+        GetMethod method = null;
+        try {
+            method = get(resource, "gzip, br");
+            if (method.getStatusCode() != HttpStatus.SC_OK) {
+                resourceErrors.add(new ValidationError(Type.WARNING, -1, -1,
+                    "Failed to download [" + resource + "]: " + method.getStatusLine()));
+                return resourceErrors;
+            }
+
+            List<String> problems = new ArrayList<String>();
+
+            if (method.getResponseHeader("ETag") == null && method.getResponseHeader("Last-Modified") == null) {
+                problems.add("no ETag or Last-Modified header");
+            }
+
+            String cacheControl = getHeader(method.getResponseHeaders(), CACHE_CONTROL);
+            Matcher maxAge = MAX_AGE.matcher(cacheControl);
+            if (cacheControl.contains("no-cache") || cacheControl.contains("no-store") || !maxAge.find()
+                || Long.parseLong(maxAge.group(1)) < this.minMaxAge) {
+                problems.add(String.format("%s [%s] instead of a max-age of at least %d seconds", CACHE_CONTROL,
+                    cacheControl, this.minMaxAge));
+            }
+
+            String contentType = getHeader(method.getResponseHeaders(), "Content-Type");
+            String contentEncoding = getHeader(method.getResponseHeaders(), CONTENT_ENCODING);
+            if (COMPRESSIBLE.matcher(contentType).matches() && !contentEncoding.contains("gzip")
+                && !contentEncoding.contains("br")) {
+                problems.add(String.format("%s [%s] is not compressed", contentType, contentEncoding));
+            }
+
+            if (!problems.isEmpty()) {
+                resourceErrors.add(new ValidationError(Type.ERROR, -1, -1,
+                    "Bad caching headers for [" + resource + "]: " + problems));
+            }
+        } catch (IOException e) {
+            resourceErrors.add(new ValidationError(Type.WARNING, -1, -1,
+                "Failed to download [" + resource + "]: " + e.getMessage()));
+        } finally {
+            if (method != null) {
+                method.releaseConnection();
+            }
+        }
+
+        return resourceErrors;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Cache Headers";
+    }
+}
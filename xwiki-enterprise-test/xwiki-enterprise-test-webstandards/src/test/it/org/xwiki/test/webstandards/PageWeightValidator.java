@@ -0,0 +1,293 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.webstandards;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang.StringUtils;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.xwiki.validator.ValidationError;
+import org.xwiki.validator.ValidationError.Type;
+
+/**
+ * Verifies that the pages don't grow past their performance budget: size of the HTML, number of referenced scripts,
+ * stylesheets and images, size of the inline scripts and transfer size of the referenced resources.
+ * <p>
+ * The following configuration properties are supported (set in maven):
+ * <ul>
+ * <li>pageWeight.htmlSize, pageWeight.scripts, pageWeight.stylesheets, pageWeight.images,
+ * pageWeight.inlineScriptSize, pageWeight.transferSize: the default budgets, sizes are in bytes</li>
+ * <li>pageWeightBudgets (optional): the budgets of specific targets, one target per line. Each line starts with a
+ * regular expression matching the target name (the document reference or the URL path) followed by the budgets to
+ * override, e.g. {@code XWiki\.XWikiSyntax.* htmlSize=1000000 inlineScriptSize=100000}. The first matching line
+ * wins.</li>
+ * </ul>
+ * The referenced resources are downloaded (once for all the pages) with the credentials of the validated page in order
+ * to compute the transfer size. Only the resources served by the tested XWiki instance are counted. A resource which
+ * fails to download is reported on every page referencing it.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class PageWeightValidator extends AbstractResourceValidator
+{
+    /**
+     * The measures which have a budget.
+     */
+    public enum Metric
+    {
+        /** The size of the HTML, in bytes. */
+        HTML_SIZE("htmlSize", "300000"),
+
+        /** The number of referenced scripts. */
+        SCRIPTS("scripts", "60"),
+
+        /** The number of referenced stylesheets. */
+        STYLESHEETS("stylesheets", "30"),
+
+        /** The number of images. */
+        IMAGES("images", "100"),
+
+        /** The size of the inline scripts, in characters. */
+        INLINE_SCRIPT_SIZE("inlineScriptSize", "50000"),
+
+        /** The number of bytes transferred to download the referenced scripts, stylesheets and images. */
+        TRANSFER_SIZE("transferSize", "3000000");
+
+        private final String key;
+
+        private final String defaultBudget;
+
+        Metric(String key, String defaultBudget)
+        {
+            this.key = key;
+            this.defaultBudget = defaultBudget;
+        }
+
+        /**
+         * @return the name of the budget in the configuration
+         */
+        public String getKey()
+        {
+            return this.key;
+        }
+    }
+
+    /** The transfer size of the resources, shared by all the pages since most of them reference the same skin. */
+    private static final ConcurrentMap<String, FutureTask<Long>> RESOURCE_SIZES =
+        new ConcurrentHashMap<String, FutureTask<Long>>();
+
+    private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+
+    private final Map<Metric, Long> defaultBudgets = new EnumMap<Metric, Long>(Metric.class);
+
+    private final Map<Pattern, Map<Metric, Long>> targetBudgets = new LinkedHashMap<Pattern, Map<Metric, Long>>();
+
+    /**
+     * Create a validator with the budgets configured in the System Properties.
+     */
+    public PageWeightValidator()
+    {
+        for (Metric metric : Metric.values()) {
+            this.defaultBudgets.put(metric,
+                Long.valueOf(System.getProperty("pageWeight." + metric.getKey(), metric.defaultBudget)));
+        }
+
+        for (String line : StringUtils.split(System.getProperty("pageWeightBudgets", ""), "\r\n")) {
+            String[] tokens = WHITESPACES.split(line.trim());
+            if (tokens.length > 0 && !tokens[0].isEmpty()) {
+                Map<Metric, Long> budgets = new EnumMap<Metric, Long>(Metric.class);
+                for (int i = 1; i < tokens.length; i++) {
+                    budgets.put(getMetric(StringUtils.substringBefore(tokens[i], "=")),
+                        Long.valueOf(StringUtils.substringAfter(tokens[i], "=")));
+                }
+                this.targetBudgets.put(Pattern.compile(tokens[0]), budgets);
+            }
+        }
+    }
+
+    private static Metric getMetric(String key)
+    {
+        for (Metric metric : Metric.values()) {
+            if (metric.getKey().equals(key)) {
+                return metric;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown page weight budget [" + key + "]");
+    }
+
+    /**
+     * @param metric a measure
+     * @return the budget of the current target for the given measure
+     */
+    public long getBudget(Metric metric)
+    {
+        if (this.target != null) {
+            for (Map.Entry<Pattern, Map<Metric, Long>> entry : this.targetBudgets.entrySet()) {
+                if (entry.getKey().matcher(this.target.getName()).matches()) {
+                    Long budget = entry.getValue().get(metric);
+                    if (budget != null) {
+                        return budget;
+                    }
+                    break;
+                }
+            }
+        }
+
+        return this.defaultBudgets.get(metric);
+    }
+
+    @Override
+    public List<ValidationError> validate()
+    {
+        clear();
+
+        check(Metric.HTML_SIZE, this.document.length);
+
+        Document html = parseDocument();
+
+        Set<String> resources = new LinkedHashSet<String>();
+        int inlineScriptSize = 0;
+        int scripts = 0;
+        for (Element script : html.select("script")) {
+            if (script.hasAttr("src")) {
+                scripts++;
+                resources.add(script.absUrl("src"));
+            } else {
+                inlineScriptSize += script.data().length();
+            }
+        }
+        check(Metric.SCRIPTS, scripts);
+        check(Metric.INLINE_SCRIPT_SIZE, inlineScriptSize);
+
+        int stylesheets = 0;
+        for (Element link : html.select("link[rel=stylesheet][href]")) {
+            stylesheets++;
+            resources.add(link.absUrl("href"));
+        }
+        check(Metric.STYLESHEETS, stylesheets);
+
+        int images = 0;
+        for (Element image : html.select("img[src]")) {
+            images++;
+            resources.add(image.absUrl("src"));
+        }
+        check(Metric.IMAGES, images);
+
+        if (this.client != null) {
+            long transferSize = 0;
+            for (String resource : resources) {
+                transferSize += getTransferSize(resource);
+            }
+            check(Metric.TRANSFER_SIZE, transferSize);
+        }
+
+        return this.errors;
+    }
+
+    private void check(Metric metric, long value)
+    {
+        long budget = getBudget(metric);
+        if (value > budget) {
+            addError(Type.ERROR, String.format("The %s budget is exceeded: %d > %d", metric.getKey(), value, budget));
+        }
+    }
+
+    /**
+     * @param resource the URL of a referenced resource
+     * @return the number of bytes transferred to download the resource, 0 if it's not served by the tested instance
+     *         or if it failed to download
+     */
+    private long getTransferSize(final String resource)
+    {
+        if (!isLocal(resource)) {
+            return 0;
+        }
+
+        FutureTask<Long> task = new FutureTask<Long>(new Callable<Long>()
+        {
+            @Override
+            public Long call() throws IOException
+            {
+                return download(resource);
+            }
+        });
+        FutureTask<Long> existing = RESOURCE_SIZES.putIfAbsent(resource, task);
+        if (existing == null) {
+            task.run();
+        } else {
+            task = existing;
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while downloading [" + resource + "]", e);
+        } catch (ExecutionException e) {
+            // The failure is kept with the resource so that it's reported on every page referencing it.
+            addError(Type.WARNING, "Failed to download [" + resource + "]: " + e.getCause().getMessage());
+            return 0;
+        }
+    }
+
+    private long download(String resource) throws IOException
+    {
+        GetMethod method = null;
+        try {
+            method = get(resource, "gzip");
+            if (method.getStatusCode() != HttpStatus.SC_OK) {
+                throw new IOException(String.valueOf(method.getStatusLine()));
+            }
+
+            InputStream stream = method.getResponseBodyAsStream();
+            return stream == null ? 0 : IOUtils.copyLarge(stream, new NullOutputStream());
+        } finally {
+            if (method != null) {
+                method.releaseConnection();
+            }
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Page Weight";
+    }
+}
@@ -34,6 +34,7 @@
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.xwiki.test.webstandards.framework.AbstractValidationTest;
+import org.xwiki.test.webstandards.framework.ParallelTestSuite;
 import org.xwiki.validator.ValidationError;
 import org.xwiki.validator.Validator;
 
@@ -81,15 +82,15 @@ public RSSValidationTest(Target target, HttpClient client, Validator validator,
     public static Test suite(Class< ? extends AbstractValidationTest> validationTest, Validator validator)
         throws Exception
     {
-        TestSuite suite = new TestSuite();
+        TestSuite suite = createSuite();
 
-        HttpClient adminClient = new HttpClient();
+        HttpClient adminClient = createClient();
         Credentials defaultcreds = new UsernamePasswordCredentials("Admin", "admin");
         adminClient.getState().setCredentials(AuthScope.ANY, defaultcreds);
 
         addRSSURLsForAdmin(validationTest, validator, suite, adminClient);
 
-        HttpClient guestClient = new HttpClient();
+        HttpClient guestClient = createClient();
 
         addRSSURLsForGuest(validationTest, validator, suite, guestClient);
 
@@ -119,22 +120,33 @@ protected void setUp() throws Exception
     {
         super.setUp();
 
+        this.validator = getThreadValidator(this.validator);
+
         // TODO Until we find a way to incrementally display the result of tests this stays
-        System.out.println(getName());
-
-        // We redirect the stdout and the stderr in order to detect (server-side) error/warning
-        // messages like the ones generated by the velocity parser
-        this.stdout = System.out;
-        this.out = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(this.out));
-        this.stderr = System.err;
-        this.err = new ByteArrayOutputStream();
-        System.setErr(new PrintStream(this.err));
+        ParallelTestSuite.getTestOutput().println(getName());
+
+        // The streams are shared by all the threads so they are captured by the ParallelTestSuite when the tests run
+        // in parallel.
+        if (getThreads() <= 1) {
+            // We redirect the stdout and the stderr in order to detect (server-side) error/warning
+            // messages like the ones generated by the velocity parser
+            this.stdout = System.out;
+            this.out = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(this.out));
+            this.stderr = System.err;
+            this.err = new ByteArrayOutputStream();
+            System.setErr(new PrintStream(this.err));
+        }
     }
 
     @Override
     protected void tearDown() throws Exception
     {
+        if (this.out == null) {
+            super.tearDown();
+            return;
+        }
+
         // Restore original stdout and stderr streams.
         String output = this.out.toString();
         String errput = this.err.toString();
@@ -175,10 +187,10 @@ public void testDocumentValidity() throws Exception
         for (ValidationError error : errors) {
             if (error.getType() == ValidationError.Type.WARNING) {
                 if (error.getLine() >= 0) {
-                    System.out.println("Warning at " + error.getLine() + ":" + error.getColumn() + " "
-                        + error.getMessage());
+                    ParallelTestSuite.getTestOutput().println("Warning at " + error.getLine() + ":"
+                        + error.getColumn() + " " + error.getMessage());
                 } else {
-                    System.out.println("Warning " + error.getMessage());
+                    ParallelTestSuite.getTestOutput().println("Warning " + error.getMessage());
                 }
             } else {
                 if (error.getLine() >= 0) {
@@ -193,13 +205,14 @@ public void testDocumentValidity() throws Exception
         }
 
         if (hasError) {
-            System.err.println("");
-            System.err.println("Validated content:");
+            // Printed at once so that the content is not mixed with the output of the tests run in parallel.
+            StringBuilder content = new StringBuilder("\nValidated content:\n");
             BufferedReader reader = new BufferedReader(new StringReader(new String(responseBody)));
             int index = 1;
             for (String line = reader.readLine(); line != null; line = reader.readLine(), ++index) {
-                System.err.println(index + "\t" + line);
+                content.append(index).append('\t').append(line).append('\n');
             }
+            ParallelTestSuite.getTestErrorOutput().print(content);
         }
 
         assertFalse(message.toString(), hasError);
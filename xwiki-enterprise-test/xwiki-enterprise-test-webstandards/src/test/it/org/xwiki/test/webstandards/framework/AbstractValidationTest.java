@@ -24,13 +24,19 @@
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.httpclient.Credentials;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.SimpleHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
@@ -40,6 +46,7 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.framework.HttpStatistics;
 import org.xwiki.validator.Validator;
 import org.xwiki.xar.XarEntry;
 import org.xwiki.xar.XarPackage;
@@ -53,6 +60,28 @@ public class AbstractValidationTest extends TestCase
     private static final DefaultStringEntityReferenceSerializer SERIALIZER =
         new DefaultStringEntityReferenceSerializer();
 
+    private static final String ADMIN_CREDENTIALS = "Admin:admin";
+
+    private static final ThreadLocal<Map<Validator, Validator>> THREAD_VALIDATORS =
+        new ThreadLocal<Map<Validator, Validator>>()
+        {
+            @Override
+            protected Map<Validator, Validator> initialValue()
+            {
+                return new HashMap<Validator, Validator>();
+            }
+        };
+
+    private static final ThreadLocal<Map<HttpClient, HttpClient>> THREAD_CLIENTS =
+        new ThreadLocal<Map<HttpClient, HttpClient>>()
+        {
+            @Override
+            protected Map<HttpClient, HttpClient> initialValue()
+            {
+                return new HashMap<HttpClient, HttpClient>();
+            }
+        };
+
     protected HttpClient client;
 
     protected Target target;
@@ -97,12 +126,28 @@ protected GetMethod createGetMethod() throws UnsupportedEncodingException
     }
 
     protected GetMethod getResponse() throws Exception
+    {
+        return getResponse(this.client);
+    }
+
+    /**
+     * @param client the client to execute the request with
+     * @return the response of the target, to be released by the caller
+     * @throws Exception when failing to get the response
+     * @since 9.5RC1
+     */
+    protected GetMethod getResponse(HttpClient client) throws Exception
     {
         GetMethod method = createGetMethod();
 
         method.setFollowRedirects(true);
         method.getParams().setSoTimeout(30000);
 
+        if (Boolean.parseBoolean(System.getProperty("httpCompression", "true"))) {
+            // The body is decoded by HttpStatistics#getResponseBody().
+            method.addRequestHeader("Accept-Encoding", "gzip");
+        }
+
         if (this.credentials != null) {
             method.setDoAuthentication(true);
             method.addRequestHeader("Authorization",
@@ -111,7 +156,8 @@ protected GetMethod getResponse() throws Exception
 
         // Execute the method.
         try {
-            int statusCode = this.client.executeMethod(method);
+            HttpStatistics.getInstance().countRequest();
+            int statusCode = client.executeMethod(method);
 
             assertEquals("Method failed: " + method.getStatusLine(), HttpStatus.SC_OK, statusCode);
 
@@ -126,11 +172,46 @@ protected GetMethod getResponse() throws Exception
 
     protected byte[] getResponseBody() throws Exception
     {
-        GetMethod method = getResponse();
+        return getCachedResponse().getBody();
+    }
+
+    /**
+     * @return the response of the target, with its headers
+     * @throws Exception when failing to get the response
+     * @since 9.5RC1
+     */
+    protected CachedResponse getCachedResponse() throws Exception
+    {
+        // The same target is usually validated by several validators so we fetch it only once.
+        return ResponseCache.getInstance().get(createGetMethod().getURI().toString(), this.credentials,
+            new Callable<CachedResponse>()
+            {
+                @Override
+                public CachedResponse call() throws Exception
+                {
+                    return fetchResponse();
+                }
+            });
+    }
+
+    protected CachedResponse fetchResponse() throws Exception
+    {
+        // The response is timed with a client of its own so that the time doesn't include waiting for a connection
+        // of the shared pool. It still includes the redirects and the first render of the target.
+        HttpClient timingClient = getThreadClient(this.client);
+        long start = System.nanoTime();
+        GetMethod method = getResponse(timingClient);
+        // The method is executed once the response headers are received.
+        long responseTime = (System.nanoTime() - start) / 1000000L;
 
         try {
             // Read the response body.
-            return method.getResponseBody();
+            byte[] body = HttpStatistics.getInstance().getResponseBody(method);
+
+            ResponseTimes.getInstance().record(createGetMethod().getURI().toString(), this.credentials, responseTime,
+                body.length);
+
+            return new CachedResponse(body, method.getResponseHeaders());
         } finally {
             method.releaseConnection();
         }
@@ -139,9 +220,131 @@ protected byte[] getResponseBody() throws Exception
     public static Test suite(Class< ? extends AbstractValidationTest> validationTest, Validator validator)
         throws Exception
     {
-        TestSuite suite = new TestSuite();
+        return suite(Collections.<Validator, Class< ? extends AbstractValidationTest>>singletonMap(validator,
+            validationTest));
+    }
+
+    /**
+     * Create a suite validating each target with all the given validators. The tests of a target are grouped so that
+     * it is fetched only once, see {@link ResponseCache}, and followed by a check of its response time, see
+     * {@link ResponseTimeTest}.
+     *
+     * @param validators the validators to use, with the test to run for each of them
+     * @return the test suite
+     * @throws Exception when failing to create the tests
+     * @since 9.5RC1
+     */
+    public static Test suite(Map<Validator, Class< ? extends AbstractValidationTest>> validators) throws Exception
+    {
+        TestSuite suite = createSuite();
+
+        HttpStatistics.install();
+
+        HttpClient adminClient = createAdminClient();
+
+        List<Target> adminTargets = getXarTargets();
+        adminTargets.addAll(getURLTargets("urlsToTestAsAdmin"));
+        for (Target target : adminTargets) {
+            for (Map.Entry<Validator, Class< ? extends AbstractValidationTest>> entry : validators.entrySet()) {
+                suite.addTest(newTest(entry.getValue(), target, adminClient, entry.getKey(), ADMIN_CREDENTIALS));
+            }
+            suite.addTest(new ResponseTimeTest(target, adminClient, ADMIN_CREDENTIALS));
+        }
+
+        HttpClient guestClient = createClient();
+
+        for (Target target : getURLTargets("urlsToTestAsGuest")) {
+            for (Map.Entry<Validator, Class< ? extends AbstractValidationTest>> entry : validators.entrySet()) {
+                suite.addTest(newTest(entry.getValue(), target, guestClient, entry.getKey(), null));
+            }
+            suite.addTest(new ResponseTimeTest(target, guestClient, null));
+        }
+
+        return suite;
+    }
+
+    /**
+     * @return the number of tests to run at the same time, taken from the "validationThreads" System Property
+     * @since 9.5RC1
+     */
+    protected static int getThreads()
+    {
+        return Integer.getInteger("validationThreads", 1);
+    }
+
+    /**
+     * @return a suite running its tests in parallel when more than one thread is configured
+     * @since 9.5RC1
+     */
+    protected static TestSuite createSuite()
+    {
+        int threads = getThreads();
+
+        return threads > 1 ? new ParallelTestSuite(threads) : new TestSuite();
+    }
 
-        HttpClient adminClient = new HttpClient();
+    /**
+     * @return a client which can be shared by all the threads running the tests
+     * @since 9.5RC1
+     */
+    protected static HttpClient createClient()
+    {
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(getThreads());
+        connectionManager.getParams().setMaxTotalConnections(getThreads());
+
+        return new HttpClient(connectionManager);
+    }
+
+    /**
+     * The validators keep the validated document and the errors so they cannot be shared by the threads running the
+     * tests. Each thread uses its own copy of the validators, created with their default constructor.
+     *
+     * @param validator the validator given to the test
+     * @return the validator to use in the current thread
+     * @throws Exception when failing to create the validator
+     * @since 9.5RC1
+     */
+    protected static Validator getThreadValidator(Validator validator) throws Exception
+    {
+        if (getThreads() <= 1) {
+            return validator;
+        }
+
+        Map<Validator, Validator> validators = THREAD_VALIDATORS.get();
+        Validator threadValidator = validators.get(validator);
+        if (threadValidator == null) {
+            threadValidator = validator.getClass().newInstance();
+            validators.put(validator, threadValidator);
+        }
+
+        return threadValidator;
+    }
+
+    /**
+     * The clients given to the tests share a pool of connections with the validators fetching the resources of the
+     * targets. Each thread uses its own copy of the clients, with a single connection, to time the targets.
+     *
+     * @param client the client given to the test
+     * @return the client to use in the current thread
+     * @since 9.5RC1
+     */
+    protected static HttpClient getThreadClient(HttpClient client)
+    {
+        Map<HttpClient, HttpClient> clients = THREAD_CLIENTS.get();
+        HttpClient threadClient = clients.get(client);
+        if (threadClient == null) {
+            threadClient = new HttpClient(client.getParams(), new SimpleHttpConnectionManager());
+            threadClient.setState(client.getState());
+            clients.put(client, threadClient);
+        }
+
+        return threadClient;
+    }
+
+    protected static HttpClient createAdminClient()
+    {
+        HttpClient adminClient = createClient();
         // The code that prevents circular redirects (HttpMethodDirector#processRedirectResponse) ignores the query
         // string when comparing the redirect location with the current location. The browser doesn't behave like this
         // and we have pages that redirect to themselves with different query string parameters.
@@ -151,20 +354,13 @@ public static Test suite(Class< ? extends AbstractValidationTest> validationTest
         Credentials defaultcreds = new UsernamePasswordCredentials("Admin", "admin");
         adminClient.getState().setCredentials(AuthScope.ANY, defaultcreds);
 
-        addXarFiles(validationTest, validator, suite, adminClient);
-        addURLsForAdmin(validationTest, validator, suite, adminClient);
-
-        HttpClient guestClient = new HttpClient();
-
-        addURLsForGuest(validationTest, validator, suite, guestClient);
-
-        return suite;
+        return adminClient;
     }
 
     protected static void addURLsForAdmin(Class< ? extends AbstractValidationTest> validationTest, Validator validator,
         TestSuite suite, HttpClient client) throws Exception
     {
-        addURLs("urlsToTestAsAdmin", validationTest, validator, suite, client, "Admin:admin");
+        addURLs("urlsToTestAsAdmin", validationTest, validator, suite, client, ADMIN_CREDENTIALS);
     }
 
     protected static void addURLsForGuest(Class< ? extends AbstractValidationTest> validationTest, Validator validator,
@@ -176,28 +372,54 @@ protected static void addURLsForGuest(Class< ? extends AbstractValidationTest> v
     protected static void addURLs(String property, Class< ? extends AbstractValidationTest> validationTest,
         Validator validator, TestSuite suite, HttpClient client, String credentials) throws Exception
     {
+        for (Target target : getURLTargets(property)) {
+            suite.addTest(newTest(validationTest, target, client, validator, credentials));
+        }
+    }
+
+    protected static void addXarFiles(Class< ? extends AbstractValidationTest> validationTest, Validator validator,
+        TestSuite suite, HttpClient client) throws Exception
+    {
+        for (Target target : getXarTargets()) {
+            suite.addTest(newTest(validationTest, target, client, validator, ADMIN_CREDENTIALS));
+        }
+    }
+
+    protected static List<Target> getURLTargets(String property)
+    {
+        List<Target> targets = new ArrayList<Target>();
+
         String urlsToTest = System.getProperty(property);
 
         if (urlsToTest != null) {
             for (String url : urlsToTest.split("\\s")) {
                 if (StringUtils.isNotEmpty(url)) {
-                    suite.addTest(validationTest.getConstructor(Target.class, HttpClient.class, Validator.class,
-                        String.class).newInstance(new URLPathTarget(url), client, validator, credentials));
+                    targets.add(new URLPathTarget(url));
                 }
             }
         }
+
+        return targets;
     }
 
-    protected static void addXarFiles(Class< ? extends AbstractValidationTest> validationTest, Validator validator,
-        TestSuite suite, HttpClient client) throws Exception
+    protected static List<Target> getXarTargets() throws Exception
     {
         String path = System.getProperty("localRepository") + "/" + System.getProperty("pathToXWikiXar");
         String patternFilter = System.getProperty("documentsToTest");
 
+        List<Target> targets = new ArrayList<Target>();
         for (DocumentReference documentReference : readXarContents(path, patternFilter)) {
-            suite.addTest(validationTest.getConstructor(Target.class, HttpClient.class, Validator.class, String.class)
-                .newInstance(new DocumentReferenceTarget(documentReference), client, validator, "Admin:admin"));
+            targets.add(new DocumentReferenceTarget(documentReference));
         }
+
+        return targets;
+    }
+
+    protected static AbstractValidationTest newTest(Class< ? extends AbstractValidationTest> validationTest,
+        Target target, HttpClient client, Validator validator, String credentials) throws Exception
+    {
+        return validationTest.getConstructor(Target.class, HttpClient.class, Validator.class, String.class)
+            .newInstance(target, client, validator, credentials);
     }
 
     protected static List<DocumentReference> readXarContents(String fileName, String patternFilter) throws Exception
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.webstandards.framework;
+
+import org.apache.commons.httpclient.Header;
+
+/**
+ * A response fetched by the validation tests and kept in the {@link ResponseCache}: its decoded body and its headers,
+ * so that the validators checking the headers don't have to fetch the target again.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class CachedResponse
+{
+    private final byte[] body;
+
+    private final Header[] headers;
+
+    /**
+     * @param body the decoded response body
+     * @param headers the response headers
+     */
+    public CachedResponse(byte[] body, Header[] headers)
+    {
+        this.body = body;
+        this.headers = headers;
+    }
+
+    /**
+     * @return the decoded response body
+     */
+    public byte[] getBody()
+    {
+        return this.body;
+    }
+
+    /**
+     * @return the response headers
+     */
+    public Header[] getHeaders()
+    {
+        return this.headers;
+    }
+}
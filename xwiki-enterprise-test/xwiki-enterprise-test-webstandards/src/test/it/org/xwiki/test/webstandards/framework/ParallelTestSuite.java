@@ -0,0 +1,319 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.webstandards.framework;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestListener;
+import junit.framework.TestResult;
+import junit.framework.TestSuite;
+
+/**
+ * Test suite running its tests in a pool of threads. Each test reports to its own {@link TestResult} and the results
+ * are then reported in the order of the tests, so that the reports look the same as when running the tests serially.
+ * <p>
+ * The standard output and error streams are shared by all the threads so they are scanned for the whole run, instead
+ * of by each test, and a failure is reported if they contain (server-side) errors or warnings. The tests write their
+ * own output (test names, validated content) to {@link #getTestOutput()} and {@link #getTestErrorOutput()} so that
+ * it's not mistaken for the output of the server.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class ParallelTestSuite extends TestSuite
+{
+    /** The standard output stream, while it's scanned by a suite running tests in parallel. */
+    private static volatile PrintStream testOutput;
+
+    /** The standard error stream, while it's scanned by a suite running tests in parallel. */
+    private static volatile PrintStream testErrorOutput;
+
+    private final int threads;
+
+    /**
+     * @param threads the number of tests to run at the same time
+     */
+    public ParallelTestSuite(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * @return the stream where the tests print their own output, which is not checked for server errors
+     */
+    public static PrintStream getTestOutput()
+    {
+        PrintStream output = testOutput;
+        return output != null ? output : System.out;
+    }
+
+    /**
+     * @return the stream where the tests print their own errors, which is not checked for server errors
+     */
+    public static PrintStream getTestErrorOutput()
+    {
+        PrintStream output = testErrorOutput;
+        return output != null ? output : System.err;
+    }
+
+    @Override
+    public void run(TestResult result)
+    {
+        PrintStream stdout = System.out;
+        ScanningOutputStream out = new ScanningOutputStream(stdout);
+        System.setOut(new PrintStream(out, true));
+        PrintStream stderr = System.err;
+        ScanningOutputStream err = new ScanningOutputStream(stderr);
+        System.setErr(new PrintStream(err, true));
+        testOutput = stdout;
+        testErrorOutput = stderr;
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        try {
+            List<Future<List<Event>>> futures = new ArrayList<Future<List<Event>>>();
+            for (int i = 0; i < testCount(); i++) {
+                futures.add(executor.submit(new TestTask(testAt(i))));
+            }
+            executor.shutdown();
+
+            for (Future<List<Event>> future : futures) {
+                if (result.shouldStop()) {
+                    break;
+                }
+                for (Event event : getEvents(future)) {
+                    event.replay(result);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+
+            System.out.flush();
+            System.err.flush();
+            testOutput = null;
+            testErrorOutput = null;
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+
+        final String message = checkOutput(out.getScannedLines(), err.getScannedLines());
+        if (message != null) {
+            new TestCase("Server output while validating in parallel")
+            {
+                @Override
+                protected void runTest()
+                {
+                    fail(message);
+                }
+            }.run(result);
+        }
+    }
+
+    /**
+     * Detect server-side error/warning messages in the scanned output.
+     *
+     * @param output the lines of the standard output containing "ERR" or "WARN"
+     * @param errput the lines of the standard error containing "ERR" or "WARN"
+     * @return the failure message, null if the output is clean
+     */
+    protected String checkOutput(String output, String errput)
+    {
+        if (output.contains("ERR") || errput.contains("ERR")) {
+            return "Errors found in the output";
+        } else if (output.contains("WARN") || errput.contains("WARN")) {
+            return "Warnings found in the output";
+        }
+
+        return null;
+    }
+
+    private List<Event> getEvents(Future<List<Event>> future)
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the tests", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to run a test", e.getCause());
+        }
+    }
+
+    /**
+     * Forwards the output to the original stream and keeps the lines which look like errors or warnings, so that the
+     * output of the whole run is not held in memory.
+     */
+    private static class ScanningOutputStream extends OutputStream
+    {
+        private final OutputStream target;
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        private final StringBuilder scannedLines = new StringBuilder();
+
+        ScanningOutputStream(OutputStream target)
+        {
+            this.target = target;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException
+        {
+            this.target.write(b);
+            if (b == '\n') {
+                scanLine();
+            } else {
+                this.line.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException
+        {
+            this.target.write(b, off, len);
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    this.line.write(b, start, i - start);
+                    scanLine();
+                    start = i + 1;
+                }
+            }
+            this.line.write(b, start, off + len - start);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            this.target.flush();
+        }
+
+        private void scanLine()
+        {
+            String content = this.line.toString();
+            if (content.contains("ERR") || content.contains("WARN")) {
+                this.scannedLines.append(content).append('\n');
+            }
+            this.line.reset();
+        }
+
+        /**
+         * @return the lines containing "ERR" or "WARN", including the last line even if it's not terminated
+         */
+        synchronized String getScannedLines()
+        {
+            scanLine();
+            return this.scannedLines.toString();
+        }
+    }
+
+    /**
+     * Runs a test and records what it reports.
+     */
+    private static class TestTask implements Callable<List<Event>>, TestListener
+    {
+        private final Test test;
+
+        private final List<Event> events = new ArrayList<Event>();
+
+        TestTask(Test test)
+        {
+            this.test = test;
+        }
+
+        @Override
+        public List<Event> call()
+        {
+            TestResult result = new TestResult();
+            result.addListener(this);
+            this.test.run(result);
+
+            return this.events;
+        }
+
+        @Override
+        public void startTest(Test test)
+        {
+            this.events.add(new Event(test, null, false));
+        }
+
+        @Override
+        public void addError(Test test, Throwable error)
+        {
+            this.events.add(new Event(test, error, false));
+        }
+
+        @Override
+        public void addFailure(Test test, AssertionFailedError failure)
+        {
+            this.events.add(new Event(test, failure, false));
+        }
+
+        @Override
+        public void endTest(Test test)
+        {
+            this.events.add(new Event(test, null, true));
+        }
+    }
+
+    /**
+     * Something reported by a test: its start, an error, a failure or its end.
+     */
+    private static class Event
+    {
+        private final Test test;
+
+        private final Throwable error;
+
+        private final boolean end;
+
+        Event(Test test, Throwable error, boolean end)
+        {
+            this.test = test;
+            this.error = error;
+            this.end = end;
+        }
+
+        void replay(TestResult result)
+        {
+            if (this.error instanceof AssertionFailedError) {
+                result.addFailure(this.test, (AssertionFailedError) this.error);
+            } else if (this.error != null) {
+                result.addError(this.test, this.error);
+            } else if (this.end) {
+                result.endTest(this.test);
+            } else {
+                result.startTest(this.test);
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.webstandards.framework;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the responses fetched by the validation tests, with their headers, so that a target validated by several
+ * validators is downloaded only once for each set of credentials. Concurrent calls for the same target wait for the
+ * first one to download it. The least recently used responses are evicted when the cache holds more than its maximum
+ * size.
+ * <p>
+ * The following configuration properties are supported (set in maven):
+ * <ul>
+ * <li>validationCacheSize (optional): Maximum size of the cached responses, in MB, 64 by default. Set to 0 to disable
+ * the cache.</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public final class ResponseCache
+{
+    private static final ResponseCache INSTANCE = new ResponseCache();
+
+    /** The responses downloaded or being downloaded, the least recently used first. */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final long maxSize;
+
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private ResponseCache()
+    {
+        this.maxSize = Long.getLong("validationCacheSize", 64) * 1024 * 1024;
+    }
+
+    /**
+     * @return the cache shared by all the validation tests
+     */
+    public static ResponseCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a response from the cache, downloading it if needed. Nothing is cached when the download fails.
+     *
+     * @param url the URL of the target
+     * @param credentials the credentials used to download the target, null for guest
+     * @param loader downloads the response
+     * @return the response
+     * @throws Exception when failing to download the response
+     */
+    public CachedResponse get(String url, String credentials, Callable<CachedResponse> loader) throws Exception
+    {
+        if (this.maxSize <= 0) {
+            this.misses.incrementAndGet();
+            return loader.call();
+        }
+
+        String key = (credentials == null ? "guest" : credentials) + ' ' + url;
+        Entry entry;
+        boolean owner = false;
+        synchronized (this.entries) {
+            entry = this.entries.get(key);
+            if (entry == null) {
+                entry = new Entry(loader);
+                this.entries.put(key, entry);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            this.misses.incrementAndGet();
+            entry.task.run();
+        } else {
+            this.hits.incrementAndGet();
+        }
+
+        try {
+            CachedResponse response = entry.task.get();
+            if (owner) {
+                added(entry, response.getBody().length);
+            }
+            return response;
+        } catch (ExecutionException e) {
+            synchronized (this.entries) {
+                if (this.entries.get(key) == entry) {
+                    this.entries.remove(key);
+                }
+            }
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Account for a downloaded response and evict the least recently used ones if the cache got too big.
+     */
+    private void added(Entry entry, int length)
+    {
+        synchronized (this.entries) {
+            entry.length = length;
+            this.size += length;
+
+            Iterator<Entry> iterator = this.entries.values().iterator();
+            while (this.size > this.maxSize && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                // Responses still being downloaded are not counted yet.
+                if (eldest.length >= 0) {
+                    this.size -= eldest.length;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of responses taken from the cache
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of responses which had to be downloaded
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d hits, %d misses", getHits(), getMisses());
+    }
+
+    private static class Entry
+    {
+        private final FutureTask<CachedResponse> task;
+
+        /** The size of the response body, -1 while it is being downloaded. */
+        private int length = -1;
+
+        Entry(Callable<CachedResponse> loader)
+        {
+            this.task = new FutureTask<CachedResponse>(loader);
+        }
+    }
+}
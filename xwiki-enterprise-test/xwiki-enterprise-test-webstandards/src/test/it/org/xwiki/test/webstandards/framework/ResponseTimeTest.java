@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.webstandards.framework;
+
+import org.apache.commons.httpclient.HttpClient;
+
+/**
+ * Verifies that the server responds to a target within its budget, see {@link ResponseTimes}. The target is taken
+ * from the {@link ResponseCache} so this test doesn't fetch it again when it follows the validation tests of the
+ * target. Unless the budgets are enforced, a response over its budget is only reported at the end of the run.
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public class ResponseTimeTest extends AbstractValidationTest
+{
+    public ResponseTimeTest(Target target, HttpClient client, String credentials)
+    {
+        super("testResponseTime", target, client, credentials);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Checking response time for: " + this.target.getName() + " executed "
+            + (credentials == null ? "as guest" : "with credentials " + credentials);
+    }
+
+    public void testResponseTime() throws Exception
+    {
+        getResponseBody();
+
+        ResponseTimes.Measure measure =
+            ResponseTimes.getInstance().get(createGetMethod().getURI().toString(), this.credentials);
+        long budget = ResponseTimes.getInstance().getBudget(this.target);
+
+        if (measure.getTime() > budget) {
+            String message = String.format("Response time of %s is %d ms (%d bytes), over the budget of %d ms",
+                this.target.getName(), measure.getTime(), measure.getSize(), budget);
+            if (ResponseTimes.getInstance().isBudgetEnforced()) {
+                fail(message);
+            } else {
+                ResponseTimes.getInstance().reportOverrun(message);
+            }
+        }
+    }
+}
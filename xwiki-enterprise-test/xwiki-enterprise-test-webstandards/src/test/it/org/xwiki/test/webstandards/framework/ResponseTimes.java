@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.test.webstandards.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Records the server response time and the size of the targets fetched by the validation tests, and holds their
+ * response time budgets. Every validation run thus doubles as a coarse latency check.
+ * <p>
+ * The following configuration properties are supported (set in maven):
+ * <ul>
+ * <li>responseTimeBudget (optional): Default response time budget, in milliseconds, 5000 by default</li>
+ * <li>responseTimeBudgets (optional): the budgets of specific targets, one target per line. Each line starts with a
+ * regular expression matching the target name (the document reference or the URL path) followed by the budget, e.g.
+ * {@code /xwiki/bin/admin/.* 10000}. The first matching line wins.</li>
+ * <li>responseTimeBudgetsEnforced (optional): whether a response over its budget fails the test, false by default.
+ * The measures include the redirects and the first render of the targets so the overruns are only reported until
+ * the budgets are settled.</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 9.5RC1
+ */
+public final class ResponseTimes
+{
+    private static final ResponseTimes INSTANCE = new ResponseTimes();
+
+    private final ConcurrentMap<String, Measure> measures = new ConcurrentHashMap<String, Measure>();
+
+    private final long defaultBudget;
+
+    private final Map<Pattern, Long> targetBudgets = new LinkedHashMap<Pattern, Long>();
+
+    private final boolean budgetsEnforced;
+
+    private final Collection<String> overruns = new ConcurrentLinkedQueue<String>();
+
+    private ResponseTimes()
+    {
+        this.defaultBudget = Long.getLong("responseTimeBudget", 5000);
+        this.budgetsEnforced = Boolean.getBoolean("responseTimeBudgetsEnforced");
+
+        for (String line : StringUtils.split(System.getProperty("responseTimeBudgets", ""), "\r\n")) {
+            String[] tokens = StringUtils.split(line);
+            if (tokens.length == 2) {
+                this.targetBudgets.put(Pattern.compile(tokens[0]), Long.valueOf(tokens[1]));
+            } else if (tokens.length > 0) {
+                throw new IllegalArgumentException("Invalid response time budget [" + line.trim() + "]");
+            }
+        }
+    }
+
+    /**
+     * @return the response times of the JVM
+     */
+    public static ResponseTimes getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Record the response to a request.
+     *
+     * @param url the requested URL
+     * @param credentials the credentials used, null for guest
+     * @param time the time the server took to respond, in milliseconds
+     * @param size the size of the response body, in bytes
+     */
+    public void record(String url, String credentials, long time, long size)
+    {
+        this.measures.put(getKey(url, credentials), new Measure(url, credentials, time, size));
+    }
+
+    /**
+     * @param url the requested URL
+     * @param credentials the credentials used, null for guest
+     * @return the last recorded response, null if the URL was not requested
+     */
+    public Measure get(String url, String credentials)
+    {
+        return this.measures.get(getKey(url, credentials));
+    }
+
+    /**
+     * @param target a validated target
+     * @return the response time budget of the target, in milliseconds
+     */
+    public long getBudget(Target target)
+    {
+        for (Map.Entry<Pattern, Long> entry : this.targetBudgets.entrySet()) {
+            if (entry.getKey().matcher(target.getName()).matches()) {
+                return entry.getValue();
+            }
+        }
+
+        return this.defaultBudget;
+    }
+
+    /**
+     * @return true if a response over its budget fails the test, false if it is only reported
+     */
+    public boolean isBudgetEnforced()
+    {
+        return this.budgetsEnforced;
+    }
+
+    /**
+     * Report a response over its budget, when the budgets are not enforced.
+     *
+     * @param message the description of the overrun
+     */
+    public void reportOverrun(String message)
+    {
+        this.overruns.add(message);
+    }
+
+    /**
+     * @return the reported overruns, one per line
+     */
+    public String getOverruns()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String overrun : this.overruns) {
+            builder.append('\n').append(overrun);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @param count the maximum number of responses to list
+     * @return the slowest responses, one per line
+     */
+    public String getSlowest(int count)
+    {
+        List<Measure> slowest = new ArrayList<Measure>(this.measures.values());
+        Collections.sort(slowest, new Comparator<Measure>()
+        {
+            @Override
+            public int compare(Measure measure1, Measure measure2)
+            {
+                return Long.compare(measure2.getTime(), measure1.getTime());
+            }
+        });
+
+        StringBuilder builder = new StringBuilder();
+        for (Measure measure : slowest.subList(0, Math.min(count, slowest.size()))) {
+            builder.append('\n').append(measure);
+        }
+
+        return builder.toString();
+    }
+
+    private String getKey(String url, String credentials)
+    {
+        return (credentials == null ? "guest" : credentials) + ' ' + url;
+    }
+
+    /**
+     * The response to a request.
+     */
+    public static class Measure
+    {
+        private final String url;
+
+        private final String credentials;
+
+        private final long time;
+
+        private final long size;
+
+        Measure(String url, String credentials, long time, long size)
+        {
+            this.url = url;
+            this.credentials = credentials;
+            this.time = time;
+            this.size = size;
+        }
+
+        /**
+         * @return the time the server took to respond, in milliseconds
+         */
+        public long getTime()
+        {
+            return this.time;
+        }
+
+        /**
+         * @return the size of the response body, in bytes
+         */
+        public long getSize()
+        {
+            return this.size;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%6d ms %9d bytes %s %s", this.time, this.size, this.url,
+                this.credentials == null ? "as guest" : "with credentials " + this.credentials);
+        }
+    }
+}